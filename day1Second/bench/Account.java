@@ -0,0 +1,17 @@
+package bench;
+
+/**
+ * A Miser/Spendthrift account as AccountBench sees it; Accounts has one per strategy.
+ */
+public interface Account {
+    void deposit();                      // the Miser's balance++
+    void withdraw();                     // the Spendthrift's balance--
+    long balance();                      // a balance query: the read
+    void reset();                        // back to zero, between runs
+
+    // Wait until each of the given number of writes has reached the balance. Only an
+    // account that applies writes asynchronously (bq) need wait.
+    default void settle(long writes) { }
+
+    default void close() { }
+}
@@ -0,0 +1,204 @@
+package bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measure every Miser/Spendthrift strategy (see Accounts) across thread counts and
+ * read/write mixes, in the manner of a JMH benchmark but with nothing beyond the JDK:
+ *
+ *  -- each strategy runs in a JVM of its own (a 'fork'), so that the JIT's profile of one
+ *     strategy doesn't slow down the next
+ *  -- each trial (strategy, threads, read percentage) runs warm-up iterations, whose
+ *     results are discarded, and then measured iterations of a fixed duration
+ *  -- in a trial, every thread loops: with the given probability it reads the balance,
+ *     otherwise it writes -- even-numbered threads deposit like a Miser, odd-numbered ones
+ *     withdraw like a Spendthrift. The reads are summed into a 'sink', so the JIT can't
+ *     drop them.
+ *  -- after each iteration, the balance is checked against the writes actually made.
+ *
+ * Sample usage (the arguments are optional; lists are comma-separated):
+ *
+ *    java bench.AccountBench [strategies|all] [threads] [read percentages] [ms per iteration]
+ *
+ *    java bench.AccountBench all 1,2,4,8,16,32 0,50,90,99 200 > accounts.csv
+ *
+ * The output is CSV, one row per trial:
+ *
+ *    strategy,threads,readPercent,opsPerSec,opsPerSecStdDev,nsPerOp,correct
+ *
+ * where nsPerOp is the average time one thread took per operation, and correct is false
+ * if any iteration ended with the wrong balance (as nosync and vol will, given threads
+ * enough). Progress and the run's settings go to the standard error.
+ */
+public class AccountBench {
+    private static final int warmups = 2;
+    private static final int iterations = 3;
+    private static final int opsPerCheck = 64;  // operations between looks at the stop flag
+
+    private static volatile boolean stop;
+
+    public static void main(String[ ] args) throws Exception {
+	String[ ] strategies = (args.length > 0 && !args[0].equals("all")) ?
+	    args[0].split(",") : Accounts.names;
+	String threads = (args.length > 1) ? args[1] : "1,2,4,8,16,32";
+	String reads   = (args.length > 2) ? args[2] : "0,50,90,99";
+	int ms         = (args.length > 3) ? Integer.parseInt(args[3]) : 200;
+
+	boolean forked = Boolean.getBoolean("bench.forked");
+	if (!forked) {
+	    System.err.printf("%d cores, Java %s: %d warm-up and %d measured iterations of %d ms%n",
+			      Runtime.getRuntime().availableProcessors(),
+			      System.getProperty("java.version"), warmups, iterations, ms);
+	    System.out.println("strategy,threads,readPercent,opsPerSec,opsPerSecStdDev,nsPerOp,correct");
+	}
+	if (strategies.length > 1 && !forked) {
+	    for (String s : strategies)
+		fork(s, threads, reads, ms);
+	    return;
+	}
+	for (String s : strategies) {
+	    Account account = Accounts.forName(s);
+	    for (int t : parse(threads))
+		for (int r : parse(reads))
+		    trial(s, account, t, r, ms);
+	    account.close();
+	}
+    }
+
+    // Run the one strategy in a child JVM, whose output is ours.
+    private static void fork(String strategy, String threads, String reads, int ms)
+	throws Exception {
+	String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+	List<String> command = new ArrayList<String>();
+	command.add(java);
+	command.add("-Dbench.forked=true");
+	command.add("-cp");
+	command.add(System.getProperty("java.class.path"));
+	command.add(AccountBench.class.getName());
+	command.add(strategy);
+	command.add(threads);
+	command.add(reads);
+	command.add(Integer.toString(ms));
+	int status = new ProcessBuilder(command).inheritIO().start().waitFor();
+	if (status != 0)
+	    System.err.println(strategy + ": fork exited with status " + status);
+    }
+
+    private static void trial(String strategy, Account account, int threads, int readPercent,
+			      int ms) throws InterruptedException {
+	boolean correct = true;
+	double[ ] rates = new double[iterations];
+	for (int i = 0; i < warmups + iterations; i++) {
+	    Result result = iteration(account, threads, readPercent, ms);
+	    correct &= result.correct;
+	    if (i >= warmups)
+		rates[i - warmups] = result.opsPerSec;
+	}
+	double mean = 0, variance = 0;
+	for (double r : rates)
+	    mean += r / iterations;
+	for (double r : rates)
+	    variance += (r - mean) * (r - mean) / Math.max(1, iterations - 1);
+	System.out.printf("%s,%d,%d,%.0f,%.0f,%.2f,%b%n", strategy, threads, readPercent,
+			  mean, Math.sqrt(variance), threads * 1e9 / mean, correct);
+	System.out.flush();
+	System.err.printf("%-8s %2d threads %2d%% reads: %,15.0f ops/s%n",
+			  strategy, threads, readPercent, mean);
+    }
+
+    private static Result iteration(Account account, int threads, int readPercent, int ms)
+	throws InterruptedException {
+	account.reset();
+	stop = false;
+	CountDownLatch go = new CountDownLatch(1);
+	Customer[ ] customers = new Customer[threads];
+	for (int i = 0; i < threads; i++) {
+	    customers[i] = new Customer(account, go, readPercent, (i & 1) == 0, i);
+	    customers[i].start();
+	}
+	long start = System.nanoTime();
+	go.countDown();
+	Thread.sleep(ms);
+	stop = true;
+	long elapsed = System.nanoTime() - start;
+
+	long ops = 0, writes = 0, net = 0;
+	for (Customer c : customers) {
+	    c.join();
+	    ops += c.ops;
+	    writes += c.writes;
+	    net += c.deposits ? c.writes : -c.writes;
+	}
+	account.settle(writes);
+	return new Result(ops * 1e9 / elapsed, account.balance() == net);
+    }
+
+    private static int[ ] parse(String list) {
+	String[ ] parts = list.split(",");
+	int[ ] values = new int[parts.length];
+	for (int i = 0; i < parts.length; i++)
+	    values[i] = Integer.parseInt(parts[i].trim());
+	return values;
+    }
+
+    private static final class Result {
+	final double opsPerSec;
+	final boolean correct;
+
+	Result(double opsPerSec, boolean correct) {
+	    this.opsPerSec = opsPerSec;
+	    this.correct = correct;
+	}
+    }
+
+    private static final class Customer extends Thread {
+	private final Account account;
+	private final CountDownLatch go;
+	private final int readPercent;
+	private final boolean deposits;  // a Miser, else a Spendthrift
+	private long seed;
+	long ops, writes, sink;          // read by the main-thread after join()
+
+	Customer(Account account, CountDownLatch go, int readPercent, boolean deposits, int id) {
+	    this.account = account;
+	    this.go = go;
+	    this.readPercent = readPercent;
+	    this.deposits = deposits;
+	    this.seed = 0x9E3779B97F4A7C15L * (id + 1);
+	}
+
+	@Override
+	public void run() {
+	    try {
+		go.await();
+	    }
+	    catch(InterruptedException e) {
+		return;
+	    }
+	    long ops = 0, writes = 0, sink = 0, x = seed;
+	    while (!stop) {
+		for (int i = 0; i < opsPerCheck; i++) {
+		    x ^= x << 13;  // xorshift: cheap, and no shared state
+		    x ^= x >>> 7;
+		    x ^= x << 17;
+		    if (((x >>> 33) * 100 >>> 31) < readPercent)
+			sink += account.balance();
+		    else {
+			if (deposits)
+			    account.deposit();
+			else
+			    account.withdraw();
+			writes++;
+		    }
+		}
+		ops += opsPerCheck;
+	    }
+	    this.ops = ops;
+	    this.writes = writes;
+	    this.sink = sink;
+	}
+    }
+}
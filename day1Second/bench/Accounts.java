@@ -0,0 +1,235 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Miser/Spendthrift account, once per synchronization strategy, behind one interface
+ * so that AccountBench can drive them all the same way. Most use the balances of the
+ * dataRace examples themselves; the others are written out here:
+ *
+ *  -- nosync:  nosync.AccountNoSync.balance++, no synchronization (wrong under contention)
+ *  -- vol:     vol.AccountNoSync.balance++ on a volatile (still wrong: read-then-update)
+ *  -- sync:    synchronized(sync.AccountSync.lock), for reads as well as writes
+ *  -- syncREL: syncREL.AccountSyncREL.lock, a ReentrantLock, likewise for reads
+ *  -- atomicC: atomicC.AccountAtomicC.balance, an AtomicInteger
+ *  -- bq:      writes are requests on a BlockingQueue to a Banker thread, which alone
+ *              updates the balance (as in day2First's bq); reads see the Banker's latest
+ *  -- adder:   a java.util.concurrent.atomic.LongAdder, striped across cells
+ *  -- striped: a review.StripedCounter: one value until contended, then striped cells
+ *  -- stamped: stamped.AccountStamped, a StampedLock: writers lock exclusively, readers
+ *              try an optimistic read and fall back on the read lock
+ *
+ * The dataRace balances are static, one per package, so only one AccountBench trial at a
+ * time may use each; reset() zeroes a balance between trials.
+ */
+public final class Accounts {
+    public static final String[ ] names =
+    { "nosync", "vol", "sync", "syncREL", "atomicC", "bq", "adder", "striped", "stamped" };
+
+    private Accounts() { }
+
+    static Account forName(String name) {
+	switch (name) {
+	case "nosync":  return new NoSyncAccount();
+	case "vol":     return new VolatileAccount();
+	case "sync":    return new SyncAccount();
+	case "syncREL": return new LockAccount();
+	case "atomicC": return new AtomicAccount();
+	case "bq":      return new QueueAccount();
+	case "adder":   return new AdderAccount();
+	case "striped": return new StripedAccount();
+	case "stamped": return new StampedAccount();
+	default: throw new IllegalArgumentException("no such strategy: " + name);
+	}
+    }
+}
+
+final class NoSyncAccount implements Account {
+    public void deposit()  { nosync.AccountNoSync.balance++; }
+    public void withdraw() { nosync.AccountNoSync.balance--; }
+    public long balance()  { return nosync.AccountNoSync.balance; }
+    public void reset()    { nosync.AccountNoSync.balance = 0; }
+}
+
+final class VolatileAccount implements Account {
+    public void deposit()  { vol.AccountNoSync.balance++; }
+    public void withdraw() { vol.AccountNoSync.balance--; }
+    public long balance()  { return vol.AccountNoSync.balance; }
+    public void reset()    { vol.AccountNoSync.balance = 0; }
+}
+
+final class SyncAccount implements Account {
+    public void deposit() {
+	synchronized(sync.AccountSync.lock) {
+	    sync.AccountSync.balance++;
+	}
+    }
+
+    public void withdraw() {
+	synchronized(sync.AccountSync.lock) {
+	    sync.AccountSync.balance--;
+	}
+    }
+
+    public long balance() {
+	synchronized(sync.AccountSync.lock) {  // readers queue up with the writers
+	    return sync.AccountSync.balance;
+	}
+    }
+
+    public void reset() {
+	synchronized(sync.AccountSync.lock) {
+	    sync.AccountSync.balance = 0;
+	}
+    }
+}
+
+final class LockAccount implements Account {
+    public void deposit() {
+	syncREL.AccountSyncREL.lock.lock();
+	try {
+	    syncREL.AccountSyncREL.balance++;
+	}
+	finally {
+	    syncREL.AccountSyncREL.lock.unlock();
+	}
+    }
+
+    public void withdraw() {
+	syncREL.AccountSyncREL.lock.lock();
+	try {
+	    syncREL.AccountSyncREL.balance--;
+	}
+	finally {
+	    syncREL.AccountSyncREL.lock.unlock();
+	}
+    }
+
+    public long balance() {
+	syncREL.AccountSyncREL.lock.lock();    // likewise
+	try {
+	    return syncREL.AccountSyncREL.balance;
+	}
+	finally {
+	    syncREL.AccountSyncREL.lock.unlock();
+	}
+    }
+
+    public void reset() {
+	syncREL.AccountSyncREL.lock.lock();
+	try {
+	    syncREL.AccountSyncREL.balance = 0;
+	}
+	finally {
+	    syncREL.AccountSyncREL.lock.unlock();
+	}
+    }
+}
+
+final class AtomicAccount implements Account {
+    public void deposit()  { atomicC.AccountAtomicC.balance.incrementAndGet(); }
+    public void withdraw() { atomicC.AccountAtomicC.balance.decrementAndGet(); }
+    public long balance()  { return atomicC.AccountAtomicC.balance.get(); }
+    public void reset()    { atomicC.AccountAtomicC.balance.set(0); }
+}
+
+// The customers put +1 and -1 requests on a bounded queue; the Banker drains them in
+// batches. A write costs the customer only the put(), but the balance lags behind it.
+final class QueueAccount implements Account {
+    private static final Integer plus = 1;
+    private static final Integer minus = -1;
+
+    private final BlockingQueue<Integer> requests = new ArrayBlockingQueue<Integer>(1024);
+    private final Thread banker;
+    private volatile long balance = 0;  // written by the Banker alone
+    private volatile long applied = 0;  // ditto
+
+    QueueAccount() {
+	banker = new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    List<Integer> batch = new ArrayList<Integer>(64);
+		    try {
+			while (true) {
+			    batch.add(requests.take());
+			    requests.drainTo(batch, 63);
+			    long b = balance;
+			    for (Integer r : batch)
+				b += r;
+			    balance = b;
+			    applied = applied + batch.size();
+			    batch.clear();
+			}
+		    }
+		    catch(InterruptedException e) { } // close()
+		}
+	    }, "Banker");
+	banker.setDaemon(true);
+	banker.start();
+    }
+
+    public void deposit()  { put(plus); }
+    public void withdraw() { put(minus); }
+    public long balance()  { return balance; }
+
+    // Only between runs, with the queue empty and the Banker waiting in take(): the
+    // customers' next put() publishes these writes to the Banker.
+    public void reset() {
+	balance = 0;
+	applied = 0;
+    }
+
+    @Override
+    public void settle(long writes) {
+	while (applied < writes)
+	    Thread.yield();
+    }
+
+    @Override
+    public void close() {
+	banker.interrupt();
+    }
+
+    private void put(Integer request) {
+	try {
+	    requests.put(request);
+	}
+	catch(InterruptedException e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+}
+
+final class AdderAccount implements Account {
+    private final LongAdder balance = new LongAdder();
+
+    public void deposit()  { balance.increment(); }
+    public void withdraw() { balance.decrement(); }
+    public long balance()  { return balance.sum(); }  // sums every cell: reads cost more
+    public void reset()    { balance.reset(); }
+}
+
+final class StripedAccount implements Account {
+    private final review.StripedCounter balance = new review.StripedCounter();
+
+    public void deposit()  { balance.increment(); }
+    public void withdraw() { balance.decrement(); }
+    public long balance()  { return balance.sum(); }
+    public void reset()    { balance.sumThenReset(); }
+}
+
+final class StampedAccount implements Account {
+    public void deposit()  { stamped.AccountStamped.deposit(); }
+    public void withdraw() { stamped.AccountStamped.withdraw(); }
+    public long balance()  { return stamped.AccountStamped.balance(); }
+
+    public void reset() {
+	long stamp = stamped.AccountStamped.lock.writeLock();
+	stamped.AccountStamped.balance = 0;
+	stamped.AccountStamped.lock.unlockWrite(stamp);
+    }
+}
@@ -0,0 +1,118 @@
+package stamped;
+
+/**
+ * A version of Miser/Spendthrift for a read-heavy account: besides the Miser and the
+ * Spendthrift, Auditors query the balance over and over -- fifty queries, say, to every
+ * deposit or withdrawal. With a synchronized block or a ReentrantLock (see sync and
+ * syncREL), each query takes the writers' exclusive lock, so queries wait for each
+ * other as well as for the writers, and every lock() and unlock() writes to the lock's
+ * shared state.
+ *
+ * A StampedLock offers readers a third way, the 'optimistic read':
+ *
+ *  -- tryOptimisticRead() returns a stamp, in effect the lock's version number, without
+ *     writing anything shared
+ *  -- the reader then reads the balance, and calls validate(stamp): true if no writer has
+ *     taken the lock since the stamp was issued, in which case the balance read is good
+ *  -- otherwise a writer got in meanwhile, and the reader falls back on readLock(), which
+ *     (like a ReentrantReadWriteLock's read lock) excludes writers but not other readers
+ *
+ * Writers still take writeLock(), exclusive as before. A StampedLock is _not_ reentrant:
+ * a thread holding the write lock that asks for it again deadlocks with itself.
+ */
+import java.util.concurrent.locks.StampedLock;
+
+class Miser extends Thread {       // deposit
+    Miser(int howMany) { this.howMany = howMany; }
+
+    @Override
+    public void run() {
+	for (int i = 0; i < howMany; i++)
+	    AccountStamped.deposit();
+    }
+
+    private int howMany;
+}
+
+class Spendthrift extends Thread { // withdraw
+    Spendthrift(int howMany) { this.howMany = howMany; }
+
+    @Override
+    public void run() {
+	for (int i = 0; i < howMany; i++)
+	    AccountStamped.withdraw();
+    }
+
+    private int howMany;
+}
+
+class Auditor extends Thread {     // query, with the optimistic read written out
+    Auditor(int howMany) { this.howMany = howMany; }
+
+    @Override
+    public void run() {
+	for (int i = 0; i < howMany; i++) {
+	    long stamp = AccountStamped.lock.tryOptimisticRead(); // no write to the lock
+	    int balance = AccountStamped.balance;
+	    if (!AccountStamped.lock.validate(stamp)) {           // a writer got in: retry
+		fallbacks++;                                      // under the read lock
+		stamp = AccountStamped.lock.readLock();
+		try {
+		    balance = AccountStamped.balance;
+		}
+		finally {
+		    AccountStamped.lock.unlockRead(stamp);
+		}
+	    }
+	    if (balance > max)
+		max = balance;
+	}
+    }
+
+    int getFallbacks() { return fallbacks; }
+    int getMax()       { return max; }   // so the reads can't be optimized away
+
+    private int howMany;
+    private int fallbacks = 0;
+    private int max = Integer.MIN_VALUE;
+}
+
+public class AccountStamped {
+    public static int balance = 0;                       // guarded by the lock
+    public static final StampedLock lock = new StampedLock();
+
+    public static void deposit() {
+	long stamp = lock.writeLock();
+	try {
+	    balance++;
+	}
+	finally {
+	    lock.unlockWrite(stamp);
+	}
+    }
+
+    public static void withdraw() {
+	long stamp = lock.writeLock();
+	try {
+	    balance--;
+	}
+	finally {
+	    lock.unlockWrite(stamp);
+	}
+    }
+
+    // A balance query: optimistic first, the read lock only on conflict.
+    public static int balance() {
+	long stamp = lock.tryOptimisticRead();
+	int b = balance;
+	if (lock.validate(stamp))
+	    return b;
+	stamp = lock.readLock();
+	try {
+	    return balance;
+	}
+	finally {
+	    lock.unlockRead(stamp);
+	}
+    }
+}
@@ -0,0 +1,50 @@
+package stamped;
+
+/**
+   Miser/Spendthrift 6: the Miser and the Spendthrift race to update the balance,
+   as before, while two Auditors query it 50 times as often as either updates it.
+
+   In this version, the balance is guarded by a StampedLock: the writers lock it
+   exclusively, and the Auditors read optimistically, taking the read lock only
+   when a write overlaps a read. The balance at the end is zero, as it should be;
+   the program also reports how many queries needed the fallback.
+
+   For the cost of each approach at various thread counts and mixes of reads,
+   compare this account with the ReentrantLock version:
+
+      java bench.AccountBench syncREL,stamped 1,2,4,8,16,32 0,50,90,98
+ */
+public class RaceConditionStamped {
+    public static void main(String[ ] args) {
+       if (args.length < 1) {
+         System.err.println("RaceConditionStamped <times to iterate>");
+         return;
+       }
+
+       int n = Integer.parseInt(args[0]);
+       Miser miser = new Miser(n);
+       Spendthrift spendthrift = new Spendthrift(n);
+       Auditor[ ] auditors = { new Auditor(50 * n), new Auditor(50 * n) };
+
+       long start = System.nanoTime();
+       miser.start();
+       spendthrift.start();
+       for (Auditor a : auditors)
+          a.start();
+
+       int fallbacks = 0;
+       try {
+          miser.join();
+          spendthrift.join();
+          for (Auditor a : auditors) {
+             a.join();
+             fallbacks += a.getFallbacks();
+          }
+       } catch(Exception e) { System.err.println(e); }
+
+       System.out.println("Final balance: " + AccountStamped.balance());
+       System.out.printf("%d queries in %.1f ms; %d (%.3f%%) fell back on the read lock%n",
+                         100L * n, (System.nanoTime() - start) / 1e6,
+                         fallbacks, 100.0 * fallbacks / (100.0 * n));
+    }
+}
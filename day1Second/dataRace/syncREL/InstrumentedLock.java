@@ -0,0 +1,243 @@
+package syncREL;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A ReentrantLock that keeps track of how it is used -- a drop-in wherever a ReentrantLock
+ * is expected, such as AccountSyncREL.lock:
+ *
+ *    public static final ReentrantLock lock = new InstrumentedLock();  // samples 1 in 64
+ *
+ * Each acquisition is counted as uncontended (tryLock succeeded at once) or contended (the
+ * thread had to queue). For contended acquisitions, the lock records the wait; for each
+ * outermost hold, from acquisition to the matching unlock(), it records the hold time;
+ * and it keeps the longest queue of waiting threads it has seen. The recording is per
+ * thread, into LockHistograms that only that thread writes, so the instruments add no
+ * contention of their own, and nothing is allocated after a thread's first acquisition.
+ *
+ * A clock reading costs about as much as an uncontended lock() itself, so the lock can
+ * sample: with a sample period of N, it times the holds of only one uncontended
+ * acquisition in N (per thread), and the other N-1 pay for a thread-local lookup and a
+ * count. Contended acquisitions, slow anyway, are always timed. LockBench measures the
+ * overhead. The no-argument constructor samples one in 64, so that the obvious drop-in is
+ * also the cheap one; new InstrumentedLock(1) times every acquisition.
+ *
+ * Only the non-fair policy is supported: the instrumented lock() starts with a barging
+ * tryLock(). (lockInterruptibly() and the timed tryLock() check for an interrupt first, as
+ * ReentrantLock's own do; an interrupted thread mustn't get the lock by barging.)
+ *
+ * The lock keeps one ThreadStats for every thread that has ever used it, even after the
+ * thread exits, so that the totals count its acquisitions. With a fixed set of threads, a
+ * pool's say, that's a fixed amount of memory; a lock used by an endless stream of
+ * short-lived threads, though, keeps growing its list, and is better left uninstrumented.
+ *
+ * A serialized lock, like a ReentrantLock, comes back unlocked; its instruments come back
+ * empty, as they're per-thread and not serialized.
+ */
+public class InstrumentedLock extends ReentrantLock {
+    private static final long serialVersionUID = 1L;
+
+    private static final AtomicIntegerFieldUpdater<InstrumentedLock> maxQueueUpdater =
+	AtomicIntegerFieldUpdater.newUpdater(InstrumentedLock.class, "maxQueue");
+
+    public static final int defaultSamplePeriod = 64;
+
+    private final int sampleMask;         // sample period - 1, the period a power of 2
+    private transient ThreadLocal<ThreadStats> local;   // set again by readObject()
+    private transient CopyOnWriteArrayList<ThreadStats> threads;
+    private volatile int maxQueue = 0;
+
+    // Time the holds of one uncontended acquisition in 64, the cheap default for a drop-in;
+    // new InstrumentedLock(1) times every one.
+    public InstrumentedLock() {
+	this(defaultSamplePeriod);
+    }
+
+    // Time the holds of one uncontended acquisition in samplePeriod, rounded up to a power of 2.
+    public InstrumentedLock(int samplePeriod) {
+	int p = 1;
+	while (p < samplePeriod)
+	    p <<= 1;
+	this.sampleMask = p - 1;
+	initInstruments();
+    }
+
+    private void initInstruments() {
+	this.threads = new CopyOnWriteArrayList<ThreadStats>();
+	this.local = new ThreadLocal<ThreadStats>() {
+		@Override
+		protected ThreadStats initialValue() {
+		    ThreadStats t = new ThreadStats(Thread.currentThread().getName());
+		    threads.add(t);
+		    return t;
+		}
+	    };
+    }
+
+    // The transient instruments would otherwise be null, and the first lock() would fail.
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+	in.defaultReadObject();
+	maxQueue = 0;                        // empty instruments, all of them
+	initInstruments();
+    }
+
+    @Override
+    public void lock() {
+	ThreadStats t = local.get();
+	if (super.tryLock()) {
+	    acquired(t);
+	    return;
+	}
+	long start = waiting();
+	super.lock();
+	acquiredAfterWait(t, start);
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+	if (Thread.interrupted())
+	    throw new InterruptedException();
+	ThreadStats t = local.get();
+	if (super.tryLock()) {
+	    acquired(t);
+	    return;
+	}
+	long start = waiting();
+	super.lockInterruptibly();
+	acquiredAfterWait(t, start);
+    }
+
+    @Override
+    public boolean tryLock() {
+	if (!super.tryLock())
+	    return false;
+	acquired(local.get());
+	return true;
+    }
+
+    @Override
+    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+	if (Thread.interrupted())
+	    throw new InterruptedException();
+	ThreadStats t = local.get();
+	if (super.tryLock()) {
+	    acquired(t);
+	    return true;
+	}
+	long start = waiting();
+	if (!super.tryLock(timeout, unit))
+	    return false;
+	acquiredAfterWait(t, start);
+	return true;
+    }
+
+    @Override
+    public void unlock() {
+	if (getHoldCount() == 1) {           // the outermost hold ends
+	    ThreadStats t = local.get();
+	    if (t.acquiredAt != 0) {
+		t.holds.record(System.nanoTime() - t.acquiredAt);
+		t.acquiredAt = 0;
+	    }
+	}
+	super.unlock();
+    }
+
+    public long getUncontended() {
+	long n = 0;
+	for (ThreadStats t : threads)
+	    n += t.uncontended;
+	return n;
+    }
+
+    public long getContended() {
+	long n = 0;
+	for (ThreadStats t : threads)
+	    n += t.contended;
+	return n;
+    }
+
+    // The most threads seen queued for the lock at once (see also getQueueLength()).
+    public int getMaxQueueLength() {
+	return maxQueue;
+    }
+
+    // Waits of contended acquisitions, merged across threads.
+    public LockHistogram getWaits() {
+	LockHistogram h = new LockHistogram();
+	for (ThreadStats t : threads)
+	    h.add(t.waits);
+	return h;
+    }
+
+    // Hold times: all of them, or a sample of the uncontended ones.
+    public LockHistogram getHolds() {
+	LockHistogram h = new LockHistogram();
+	for (ThreadStats t : threads)
+	    h.add(t.holds);
+	return h;
+    }
+
+    // One line per thread that has used the lock, then the totals.
+    public String report() {
+	StringBuilder sb = new StringBuilder();
+	for (ThreadStats t : threads)
+	    sb.append(String.format("  %-12s uncontended %,d, contended %,d%n    wait %s%n    hold %s%n",
+				    t.name, t.uncontended, t.contended, t.waits, t.holds));
+	sb.append(String.format("  all: uncontended %,d, contended %,d, longest queue %d%n" +
+				"    wait %s%n    hold %s",
+				getUncontended(), getContended(), maxQueue, getWaits(), getHolds()));
+	return sb.toString();
+    }
+
+    // An uncontended acquisition, perhaps reentrant; time the hold if it's the outermost
+    // and this one is sampled.
+    private void acquired(ThreadStats t) {
+	long n = t.uncontended + 1;
+	ThreadStats.uncontendedUpdater.lazySet(t, n);
+	if ((n & sampleMask) == 0 && getHoldCount() == 1)
+	    t.acquiredAt = System.nanoTime();
+    }
+
+    // About to queue: note the queue's length, and the time.
+    private long waiting() {
+	int q = getQueueLength() + 1;
+	int m;
+	while (q > (m = maxQueue) && !maxQueueUpdater.compareAndSet(this, m, q))
+	    ;
+	return System.nanoTime();
+    }
+
+    private void acquiredAfterWait(ThreadStats t, long start) {
+	long now = System.nanoTime();
+	ThreadStats.contendedUpdater.lazySet(t, t.contended + 1);
+	t.waits.record(now - start);
+	if (getHoldCount() == 1)
+	    t.acquiredAt = now;
+    }
+
+    // One thread's instruments: written by that thread alone.
+    private static final class ThreadStats {
+	static final AtomicLongFieldUpdater<ThreadStats> uncontendedUpdater =
+	    AtomicLongFieldUpdater.newUpdater(ThreadStats.class, "uncontended");
+	static final AtomicLongFieldUpdater<ThreadStats> contendedUpdater =
+	    AtomicLongFieldUpdater.newUpdater(ThreadStats.class, "contended");
+
+	final String name;
+	final LockHistogram waits = new LockHistogram();
+	final LockHistogram holds = new LockHistogram();
+	volatile long uncontended = 0;
+	volatile long contended = 0;
+	long acquiredAt = 0;              // 0: the current hold isn't being timed
+
+	ThreadStats(String name) {
+	    this.name = name;
+	}
+    }
+}
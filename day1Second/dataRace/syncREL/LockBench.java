@@ -0,0 +1,78 @@
+package syncREL;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The cost of an InstrumentedLock, and what it shows:
+ *
+ *  -- first, one thread locks and unlocks a plain ReentrantLock, then InstrumentedLocks
+ *     with sample periods of 1 (time everything), 16, and 64, and reports the nanoseconds
+ *     per uncontended lock()/unlock() pair over the plain lock's
+ *  -- then a Miser and a Spendthrift, plus extra pairs if asked, update a balance under an
+ *     InstrumentedLock, and the program prints the lock's report.
+ *
+ * Sample usage (the arguments are optional):
+ *
+ *    java syncREL.LockBench [acquisitions] [threads for the contended run]
+ */
+public class LockBench {
+    private static int balance = 0;
+
+    public static void main(String[ ] args) throws Exception {
+	int n = (args.length > 0) ? Integer.parseInt(args[0]) : 50_000_000;
+	int threads = (args.length > 1) ? Integer.parseInt(args[1]) : 2;
+
+	ReentrantLock[ ] locks = { new ReentrantLock(), new InstrumentedLock(1),
+				   new InstrumentedLock(16), new InstrumentedLock(64) };
+	String[ ] names = { "ReentrantLock", "sample 1", "sample 16", "sample 64" };
+	double[ ] ns = new double[locks.length];
+	for (int round = 0; round < 3; round++)  // the first two rounds warm up
+	    for (int i = 0; i < locks.length; i++)
+		ns[i] = uncontended(locks[i], n);
+	System.out.printf("uncontended lock()/unlock(), %,d times:%n", n);
+	for (int i = 0; i < locks.length; i++)
+	    System.out.printf("  %-14s %6.1f ns  (+%.1f ns)%n", names[i], ns[i], ns[i] - ns[0]);
+
+	balance = 0;
+	final InstrumentedLock lock = new InstrumentedLock(16);
+	final int howMany = n / 10;
+	Thread[ ] ts = new Thread[threads];
+	for (int i = 0; i < threads; i++) {
+	    final int delta = (i % 2 == 0) ? 1 : -1;
+	    ts[i] = new Thread(new Runnable() {
+		    @Override
+		    public void run() {
+			for (int k = 0; k < howMany; k++) {
+			    lock.lock();
+			    try {
+				balance += delta;
+			    }
+			    finally {
+				lock.unlock();
+			    }
+			}
+		    }
+		}, (delta > 0) ? "Miser-" + i : "Spendthrift-" + i);
+	}
+	for (Thread t : ts)
+	    t.start();
+	for (Thread t : ts)
+	    t.join();
+	System.out.printf("%d threads, %,d updates each; final balance %d%n%s%n",
+			  threads, howMany, balance, lock.report());
+    }
+
+    private static double uncontended(ReentrantLock lock, int n) {
+	long start = System.nanoTime();
+	for (int i = 0; i < n; i++) {
+	    lock.lock();
+	    try {
+		balance++;
+	    }
+	    finally {
+		lock.unlock();
+	    }
+	}
+	return (double) (System.nanoTime() - start) / n;
+    }
+}
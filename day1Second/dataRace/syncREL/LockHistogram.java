@@ -0,0 +1,82 @@
+package syncREL;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds, for an InstrumentedLock's waits and holds.
+ * Each power of 2 is split into 8 buckets, so a value lands in a bucket at most 12.5%
+ * wider than itself, from a few nanoseconds up to days, in under 500 buckets:
+ *
+ *    bucket    0..7    8..15    16..23   ...   8k..8k+7
+ *    values    0..7    8..15    16..31   ...   [8 << (k-1), 8 << k)  in 8 steps
+ *
+ * Each thread records into histograms of its own, so record() has one writer: it needs no
+ * lock and no CAS, only an ordered store (lazySet) so that readers eventually see the
+ * counts, and it never allocates. A report merges the threads' histograms with add().
+ */
+public final class LockHistogram {
+    private static final int subBits = 3;
+    private static final int subBuckets = 1 << subBits;            // 8
+    private static final int buckets = (64 - subBits + 1) * subBuckets;
+
+    private final AtomicLongArray counts = new AtomicLongArray(buckets);
+
+    // Single writer only.
+    public void record(long nanos) {
+	int i = index(Math.max(0, nanos));
+	counts.lazySet(i, counts.get(i) + 1);
+    }
+
+    // Fold another histogram's counts into this one.
+    public void add(LockHistogram other) {
+	for (int i = 0; i < buckets; i++) {
+	    long c = other.counts.get(i);
+	    if (c != 0)
+		counts.addAndGet(i, c);
+	}
+    }
+
+    public long count() {
+	long n = 0;
+	for (int i = 0; i < buckets; i++)
+	    n += counts.get(i);
+	return n;
+    }
+
+    // The value at or below which the given fraction (e.g., 0.99) of the values fall,
+    // reported as the top of its bucket; zero if the histogram is empty.
+    public long percentile(double fraction) {
+	long n = count();
+	if (n == 0)
+	    return 0;
+	long rank = Math.max(1, (long) Math.ceil(fraction * n)), seen = 0;
+	for (int i = 0; i < buckets; i++) {
+	    seen += counts.get(i);
+	    if (seen >= rank)
+		return highestValue(i);
+	}
+	return highestValue(buckets - 1);
+    }
+
+    @Override
+    public String toString() {
+	return String.format("n=%d p50=%dns p99=%dns p999=%dns", count(),
+			     percentile(0.5), percentile(0.99), percentile(0.999));
+    }
+
+    private static int index(long v) {
+	if (v < subBuckets)
+	    return (int) v;
+	int exp = 63 - Long.numberOfLeadingZeros(v);        // v is in [2^exp, 2^(exp+1))
+	int sub = (int) (v >>> (exp - subBits)) & (subBuckets - 1);
+	return (exp - subBits + 1) * subBuckets + sub;
+    }
+
+    private static long highestValue(int i) {
+	if (i < subBuckets)
+	    return i;
+	int exp = i / subBuckets + subBits - 1;
+	long lowest = (long) (subBuckets + i % subBuckets) << (exp - subBits);
+	return lowest + (1L << (exp - subBits)) - 1;
+    }
+}
@@ -0,0 +1,198 @@
+package dlock;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Transfers between the accounts of a large table, each account guarded by a lock of its
+ * own. A transfer must hold two locks at once, the source's and the target's -- exactly
+ * the situation of the Friends in Deadlock.java, each of whom holds his own lock while
+ * waiting for the other's. If one thread transfers from A to B while another transfers
+ * from B to A, and each locks its source first, each can end up holding the lock the
+ * other waits for. Deadlock!
+ *
+ * The cure is a global order on the locks: every thread locks the lower-numbered account
+ * first. Then no cycle of waiting threads can form -- the thread holding the highest lock
+ * in any would-be cycle waits for none of the others -- and so no deadlock. Two
+ * refinements:
+ *
+ *  -- tryLock with backoff: a thread that holds the first lock but can't get the second
+ *     at once releases the first, backs off for a random, growing interval, and tries
+ *     again. No thread sits on a lock while it waits, which keeps hot accounts from
+ *     stalling every transfer that touches them. After a few failed rounds, the thread
+ *     falls back on plain lock() in the global order, which always succeeds eventually.
+ *
+ *  -- batching: transferAll() locks each distinct account of a batch once, in order,
+ *     applies every transfer, and unlocks. Under skewed traffic, where a few accounts
+ *     appear in most transfers, a batch pays for the hot locks once instead of per transfer.
+ *
+ * A transfer that would overdraw its source is refused, so no balance goes negative and
+ * the table's total never changes.
+ */
+public final class TransferEngine {
+    private static final int maxTries = 8;  // rounds of tryLock before the fallback
+
+    private final ReentrantLock[ ] locks;
+    private final long[ ] balances;         // balances[i] is guarded by locks[i]
+
+    private final LongAdder transfers = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+    private final LongAdder backoffs = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+
+    public TransferEngine(int accounts, long initialBalance) {
+	locks = new ReentrantLock[accounts];
+	balances = new long[accounts];
+	for (int i = 0; i < accounts; i++)
+	    locks[i] = new ReentrantLock();
+	Arrays.fill(balances, initialBalance);
+    }
+
+    public int size() {
+	return balances.length;
+    }
+
+    // Move the amount from one account to another: false if the source can't cover it.
+    public boolean transfer(int from, int to, long amount) {
+	if (from == to)
+	    throw new IllegalArgumentException("transfer from an account to itself");
+	int first = Math.min(from, to), second = Math.max(from, to);
+	lockBoth(first, second);
+	try {
+	    return apply(from, to, amount);
+	}
+	finally {
+	    locks[second].unlock();
+	    locks[first].unlock();
+	}
+    }
+
+    // Apply transfers 0 through count-1 of the arrays under one round of locking: return
+    // how many went through. Transfers apply in order, so a later transfer may spend what
+    // an earlier one deposited.
+    public int transferAll(int[ ] from, int[ ] to, long[ ] amounts, int count) {
+	int[ ] ids = new int[2 * count];
+	for (int i = 0; i < count; i++) {
+	    if (from[i] == to[i])
+		throw new IllegalArgumentException("transfer from an account to itself");
+	    ids[2 * i] = from[i];
+	    ids[2 * i + 1] = to[i];
+	}
+	Arrays.sort(ids);
+	int n = 0;                            // drop the duplicates: each lock once
+	for (int i = 0; i < ids.length; i++)
+	    if (n == 0 || ids[i] != ids[n - 1])
+		ids[n++] = ids[i];
+
+	lockAll(ids, n);
+	try {
+	    int applied = 0;
+	    for (int i = 0; i < count; i++)
+		if (apply(from[i], to[i], amounts[i]))
+		    applied++;
+	    return applied;
+	}
+	finally {
+	    for (int i = n - 1; i >= 0; i--)
+		locks[ids[i]].unlock();
+	}
+    }
+
+    public long balance(int account) {
+	locks[account].lock();
+	try {
+	    return balances[account];
+	}
+	finally {
+	    locks[account].unlock();
+	}
+    }
+
+    // The sum of all balances. Exact only when no transfer is in progress: it locks one
+    // account at a time, so it can see money in flight twice or not at all.
+    public long totalBalance() {
+	long total = 0;
+	for (int i = 0; i < balances.length; i++)
+	    total += balance(i);
+	return total;
+    }
+
+    public long getTransfers() { return transfers.sum(); }  // applied, batched or not
+    public long getRefused()   { return refused.sum(); }    // would have overdrawn
+    public long getBackoffs()  { return backoffs.sum(); }   // rounds of tryLock that failed
+    public long getFallbacks() { return fallbacks.sum(); }  // gave up on tryLock: lock()
+
+    // Deadlock.java's mistake, for TransferStress to demonstrate: lock the source first,
+    // whatever its number. Two opposite transfers can deadlock.
+    boolean transferUnordered(int from, int to, long amount) {
+	locks[from].lock();
+	try {
+	    locks[to].lock();
+	    try {
+		return apply(from, to, amount);
+	    }
+	    finally {
+		locks[to].unlock();
+	    }
+	}
+	finally {
+	    locks[from].unlock();
+	}
+    }
+
+    // Both locks held.
+    private boolean apply(int from, int to, long amount) {
+	if (balances[from] < amount) {
+	    refused.increment();
+	    return false;
+	}
+	balances[from] -= amount;
+	balances[to] += amount;
+	transfers.increment();
+	return true;
+    }
+
+    private void lockBoth(int first, int second) {
+	for (int tries = 0; tries < maxTries; tries++) {
+	    if (locks[first].tryLock()) {
+		if (locks[second].tryLock())
+		    return;
+		locks[first].unlock();      // hold nothing while waiting
+	    }
+	    backoff(tries);
+	}
+	fallbacks.increment();
+	locks[first].lock();                // in order: can wait, but can't deadlock
+	locks[second].lock();
+    }
+
+    // ids[0..n-1] are sorted and distinct.
+    private void lockAll(int[ ] ids, int n) {
+	for (int tries = 0; tries < maxTries; tries++) {
+	    int held = 0;
+	    while (held < n && locks[ids[held]].tryLock())
+		held++;
+	    if (held == n)
+		return;
+	    while (held > 0)
+		locks[ids[--held]].unlock();
+	    backoff(tries);
+	}
+	fallbacks.increment();
+	for (int i = 0; i < n; i++)
+	    locks[ids[i]].lock();
+    }
+
+    // Random, so that two threads that collided don't collide again in step; growing,
+    // so that a hot account's queue thins out: up to 1, 2, 4, ... 128 microseconds.
+    private void backoff(int tries) {
+	backoffs.increment();
+	if (tries == 0)
+	    Thread.yield();
+	else
+	    LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(1_000L << tries));
+    }
+}
@@ -0,0 +1,160 @@
+package dlock;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A stress test of the TransferEngine: worker threads hammer a large account table with
+ * random transfers for a while, then the program checks that
+ *
+ *  -- there was no deadlock: a watchdog asks the JVM every half second whether any
+ *     threads are deadlocked (ThreadMXBean.findDeadlockedThreads), and whether the
+ *     transfer count is still climbing
+ *  -- no money was made or lost: the total is what it was, and no balance is negative
+ *
+ * Account popularity is Zipfian, as in real traffic: the account of rank k is chosen with
+ * probability proportional to 1/k^s, so that with s near 1 a handful of accounts appear in
+ * a large share of the transfers, and their locks are fought over. (The ranks are shuffled
+ * across the account numbers, so the hot accounts aren't simply the lowest-numbered.)
+ *
+ * Sample usage (the arguments are optional):
+ *
+ *    java dlock.TransferStress [mode] [threads] [seconds] [accounts] [skew s] [batch size]
+ *
+ * where mode is 'ordered' (the default), 'batched', or 'unordered' -- the last locks the
+ * source account first, as Deadlock.java does, and so soon deadlocks under skew; the
+ * watchdog then reports the deadlocked threads and the program exits.
+ */
+public class TransferStress {
+    private static volatile boolean stop = false;
+
+    public static void main(String[ ] args) throws Exception {
+	final String mode    = (args.length > 0) ? args[0] : "ordered";
+	int threads          = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+	int seconds          = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+	int accounts         = (args.length > 3) ? Integer.parseInt(args[3]) : 100_000;
+	double skew          = (args.length > 4) ? Double.parseDouble(args[4]) : 0.99;
+	final int batch      = (args.length > 5) ? Integer.parseInt(args[5]) : 16;
+	final long initial   = 1_000;
+
+	final TransferEngine engine = new TransferEngine(accounts, initial);
+	final Zipf zipf = new Zipf(accounts, skew);
+
+	Thread[ ] workers = new Thread[threads];
+	for (int i = 0; i < threads; i++) {
+	    workers[i] = new Thread(new Runnable() {
+		    @Override
+		    public void run() {
+			ThreadLocalRandom rand = ThreadLocalRandom.current();
+			int[ ] from = new int[batch], to = new int[batch];
+			long[ ] amounts = new long[batch];
+			while (!stop) {
+			    for (int k = 0; k < batch; k++) {
+				from[k] = zipf.next(rand);
+				do {
+				    to[k] = zipf.next(rand);
+				} while (to[k] == from[k]);
+				amounts[k] = 1 + rand.nextInt(100);
+			    }
+			    if (mode.equals("batched"))
+				engine.transferAll(from, to, amounts, batch);
+			    else if (mode.equals("unordered"))
+				for (int k = 0; k < batch; k++)
+				    engine.transferUnordered(from[k], to[k], amounts[k]);
+			    else
+				for (int k = 0; k < batch; k++)
+				    engine.transfer(from[k], to[k], amounts[k]);
+			}
+		    }
+		}, "transfer-" + i);
+	    workers[i].setDaemon(true);     // a deadlocked worker mustn't keep the JVM up
+	    workers[i].start();
+	}
+
+	System.out.printf("%s: %d threads, %d accounts, skew %.2f, batches of %d, %d s%n",
+			  mode, threads, accounts, skew, batch, seconds);
+	ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+	long start = System.nanoTime(), last = 0;
+	for (int tick = 0; tick < 2 * seconds; tick++) {
+	    Thread.sleep(500);
+	    long[ ] deadlocked = mx.findDeadlockedThreads();
+	    if (deadlocked != null) {
+		System.out.println("DEADLOCK among " + deadlocked.length + " threads:");
+		for (ThreadInfo info : mx.getThreadInfo(deadlocked))
+		    System.out.println("  " + info.getThreadName() + " waits for " +
+				       info.getLockName() + " held by " + info.getLockOwnerName());
+		System.exit(1);
+	    }
+	    long done = engine.getTransfers() + engine.getRefused();
+	    if (done == last)
+		System.out.println("no progress in the last half second");
+	    last = done;
+	}
+	stop = true;
+	for (Thread w : workers)
+	    w.join();
+	double elapsed = (System.nanoTime() - start) / 1e9;
+
+	long total = 0;
+	int negative = 0;
+	for (int i = 0; i < accounts; i++) {
+	    long b = engine.balance(i);
+	    total += b;
+	    if (b < 0)
+		negative++;
+	}
+	System.out.printf("%,.0f transfers/s (%,d applied, %,d refused)%n",
+			  (engine.getTransfers() + engine.getRefused()) / elapsed,
+			  engine.getTransfers(), engine.getRefused());
+	System.out.printf("backoffs %,d, fallbacks to lock() %,d, deadlocks 0%n",
+			  engine.getBackoffs(), engine.getFallbacks());
+	boolean ok = total == initial * accounts && negative == 0;
+	System.out.println(ok ? "total conserved, no negative balances" :
+			   "FAILED: total " + total + ", " + negative + " negative balances");
+	if (!ok)
+	    System.exit(1);
+    }
+}
+
+// Account numbers with Zipfian popularity: the cumulative distribution over the ranks,
+// searched by bisection, and a shuffle from ranks to account numbers.
+final class Zipf {
+    private final double[ ] cdf;
+    private final int[ ] accountOfRank;
+
+    Zipf(int n, double s) {
+	cdf = new double[n];
+	double sum = 0;
+	for (int k = 0; k < n; k++) {
+	    sum += 1 / Math.pow(k + 1, s);
+	    cdf[k] = sum;
+	}
+	for (int k = 0; k < n; k++)
+	    cdf[k] /= sum;
+	accountOfRank = new int[n];
+	for (int k = 0; k < n; k++)
+	    accountOfRank[k] = k;
+	ThreadLocalRandom rand = ThreadLocalRandom.current();
+	for (int k = n - 1; k > 0; k--) {
+	    int j = rand.nextInt(k + 1);
+	    int t = accountOfRank[k];
+	    accountOfRank[k] = accountOfRank[j];
+	    accountOfRank[j] = t;
+	}
+    }
+
+    int next(ThreadLocalRandom rand) {
+	double u = rand.nextDouble();
+	int lo = 0, hi = cdf.length - 1;
+	while (lo < hi) {
+	    int mid = (lo + hi) >>> 1;
+	    if (cdf[mid] < u)
+		lo = mid + 1;
+	    else
+		hi = mid;
+	}
+	return accountOfRank[lo];
+    }
+}
@@ -0,0 +1,83 @@
+package immut;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * RGBImage's packed pixels against one ImmutableRGB object per pixel, on a random image:
+ *
+ *  -- objects:    invert each pixel as an ImmutableRGB -- new ImmutableRGB(...).invert() --
+ *                 and store the result's getRGB(), in one thread
+ *  -- packed x1:  RGBImage.invert() with a one-thread pool, so no parallelism
+ *  -- packed:     RGBImage.invert() in the common pool, by row band
+ *  -- off-heap:   likewise, with the pixels in a direct buffer
+ *
+ * and then the packed image's blend, threshold, and histogram in the common pool.
+ *
+ * Sample usage (the arguments are optional):
+ *
+ *    java immut.ImageBench [width] [height]
+ */
+public class ImageBench {
+    public static void main(String[ ] args) {
+	int width  = (args.length > 0) ? Integer.parseInt(args[0]) : 4096;
+	int height = (args.length > 1) ? Integer.parseInt(args[1]) : 4096;
+
+	RGBImage image = random(width, height, false);
+	RGBImage sequential = random(width, height, false);
+	sequential.setPool(new ForkJoinPool(1));
+	RGBImage direct = random(width, height, true);
+	RGBImage other = random(width, height, false);
+	int[ ] objects = new int[width * height];
+	for (int i = 0; i < objects.length; i++)
+	    objects[i] = image.getRGB(i % width, i / width);
+
+	System.out.printf("%d x %d pixels, %d cores%n", width, height,
+			  ForkJoinPool.commonPool().getParallelism());
+	double[ ] ms = new double[7];
+	for (int round = 0; round < 3; round++) {   // the first two rounds warm up
+	    long t = System.nanoTime();
+	    for (int i = 0; i < objects.length; i++) {
+		int p = objects[i];
+		objects[i] = new ImmutableRGB(p >>> 16, (p >>> 8) & 0xFF, p & 0xFF, "pixel").invert().getRGB();
+	    }
+	    ms[0] = lap(t);
+	    t = System.nanoTime();
+	    sequential.invert();
+	    ms[1] = lap(t);
+	    t = System.nanoTime();
+	    image.invert();
+	    ms[2] = lap(t);
+	    t = System.nanoTime();
+	    direct.invert();
+	    ms[3] = lap(t);
+	    t = System.nanoTime();
+	    image.blend(other, 128);
+	    ms[4] = lap(t);
+	    t = System.nanoTime();
+	    image.histogram();
+	    ms[5] = lap(t);
+	    t = System.nanoTime();
+	    image.threshold(128);
+	    ms[6] = lap(t);
+	}
+	String[ ] names = { "invert, objects", "invert, packed x1", "invert, packed",
+			    "invert, off-heap", "blend", "histogram", "threshold" };
+	for (int i = 0; i < names.length; i++)
+	    System.out.printf("  %-18s %8.1f ms  %6.2f ns/pixel%n", names[i], ms[i],
+			      ms[i] * 1e6 / objects.length);
+    }
+
+    private static double lap(long start) {
+	return (System.nanoTime() - start) / 1e6;
+    }
+
+    private static RGBImage random(int width, int height, boolean offHeap) {
+	RGBImage image = offHeap ? RGBImage.offHeap(width, height) : new RGBImage(width, height);
+	ThreadLocalRandom rand = ThreadLocalRandom.current();
+	for (int y = 0; y < height; y++)
+	    for (int x = 0; x < width; x++)
+		image.setRGB(x, y, rand.nextInt(1 << 24));
+	return image;
+    }
+}
@@ -1,5 +1,7 @@
 package immut;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 /**
  * Immutable data structures (e.g., java.lang.String) are thereby thread-safe. Thread-safety through
  * immutability is an old idea, and one popularized more recently in Clojure, a modern Lisp 
@@ -10,12 +12,44 @@ package immut;
  * represents a particular color, cannot be changed. In more technical language, the state of an 
  * ImmutableRGB instance can't be altered throughout its lifetime. As a result,
  * any ImmutableRGB instance is thread-safe.
+ *
+ * Immutability makes sharing safe, and sharing makes it cheap: any number of threads can
+ * use one instance of a color instead of each allocating its own. The factory method
+ * of(red, green, blue) hands out shared instances (the 'flyweight' pattern) from a cache
+ * keyed on the color's packed 24-bit value:
+ *
+ *  -- the cache is a fixed-size array, filled lazily: each color has one slot, chosen by a
+ *     hash of its value, and a color that finds its slot taken by another replaces it.
+ *     The cache thus never grows beyond its size, however many colors a program uses;
+ *     but two calls to of() with the same color can, after an eviction, return two
+ *     different instances -- compare colors by getRGB(), not by ==.
+ *  -- no lock is needed: a thread that misses creates the instance and stores it in the
+ *     slot; if two threads race, one instance wins the slot, and the other is simply a
+ *     color nobody else shares. Both are correct.
+ *  -- a cached color's name ('#RRGGBB') isn't built until getName() asks for it, and
+ *     invert() remembers the inverse it returned, which for a cached color is the cached
+ *     instance of the inverse color.
+ *
+ * The lazily set fields, name and inverse, are the one exception to 'final everywhere'.
+ * Each is computed from final state and always to the same value (as String caches its
+ * hashCode), so a thread that sees null merely computes the value again: the instance
+ * still never appears to change. A name given to the public constructor is another
+ * matter -- it can't be computed again -- so it has a final field of its own, givenName,
+ * and getName() returns it just as given, null included.
  */
 final public class ImmutableRGB { // disallow subclassing
+    private static final int cacheBits = 16;  // 65,536 colors cached, of 16,777,216
+    private static final AtomicReferenceArray<ImmutableRGB> cache =
+        new AtomicReferenceArray<ImmutableRGB>(1 << cacheBits);
+
     final private int red;
     final private int green;
     final private int blue;
-    final private String name;
+    final private boolean shared;        // from the cache: named for its value
+    final private ImmutableRGB inverseOf; // if made by invert(), the original
+    final private String givenName;      // from the public constructor
+    private String name;                 // of() and invert() only: null until getName()
+    private ImmutableRGB inverse;        // null until invert()
 
     // Create an ImmutableRGB instance
     public ImmutableRGB(int red,
@@ -26,32 +60,73 @@ final public class ImmutableRGB { // disallow subclassing
         this.red = red;
         this.green = green;
         this.blue = blue;
-        this.name = name;
+        this.givenName = name;
+        this.shared = false;
+        this.inverseOf = null;
+    }
+
+    // For of() and invert(): the range is already checked, and the name comes later.
+    private ImmutableRGB(int rgb, boolean shared, ImmutableRGB inverseOf) {
+        this.red = (rgb >>> 16) & 0xFF;
+        this.green = (rgb >>> 8) & 0xFF;
+        this.blue = rgb & 0xFF;
+        this.shared = shared;
+        this.inverseOf = inverseOf;
+        this.givenName = null;
     }
- 
+
+    // A shared instance of the color, from the cache if it's there.
+    public static ImmutableRGB of(int red,
+                                  int green,
+                                  int blue) {
+        check(red, green, blue);
+        int rgb = (red << 16) | (green << 8) | blue;
+        int slot = (rgb * 0x9E3779B1) >>> (32 - cacheBits);  // spread neighboring colors
+        ImmutableRGB color = cache.get(slot);
+        if (color == null || color.getRGB() != rgb) {
+            color = new ImmutableRGB(rgb, true, null);
+            cache.lazySet(slot, color);  // the final fields make it safe to share
+        }
+        return color;
+    }
+
     // For convenience and efficiency, store the RGB values in a single 32-bit int.
     public int getRGB() {
         return ((red << 16) | (green << 8) | blue);
     }
 
     public String getName() {
-        return name;
+        if (!shared && inverseOf == null)  // made by the public constructor
+            return givenName;
+        String n = name;
+        if (n == null) {
+            n = (inverseOf != null) ?
+                "Inverse of " + inverseOf.getName() :
+                String.format("#%06X", getRGB());
+            name = n;
+        }
+        return n;
     }
 
-    // Create a _new_ ImmutableRGB object -- no change to the original.
+    // An ImmutableRGB object for the inverse color -- no change to the original. It is
+    // created on the first call, and returned again on later ones.
     public ImmutableRGB invert() {
-        return new ImmutableRGB(255 - red,
-				255 - green,
-				255 - blue,
-				"Inverse of " + name);
+        ImmutableRGB inv = inverse;
+        if (inv == null) {
+            inv = shared ?
+                of(255 - red, 255 - green, 255 - blue) :
+                new ImmutableRGB(getRGB() ^ 0xFFFFFF, false, this);  // 255 - each value
+            inverse = inv;
+        }
+        return inv;
     }
 
     // Check the ranges: must be from 0 through 255.
-    private void check(int red,
-                       int green,
-                       int blue) {
-        if (red < 0   || red > 255 || 
-            green < 0 || green > 255 || 
+    private static void check(int red,
+                              int green,
+                              int blue) {
+        if (red < 0   || red > 255 ||
+            green < 0 || green > 255 ||
             blue < 0  || blue > 255) {
             throw new IllegalArgumentException();
         }
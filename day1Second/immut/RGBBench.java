@@ -0,0 +1,77 @@
+package immut;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ImmutableRGB.of() against plain construction, for a render-like loop that looks up a
+ * color, inverts it, and reads both values. Two workloads:
+ *
+ *  -- palette: the colors come from a palette of a few thousand, as in most images; nearly
+ *     every of() is a cache hit
+ *  -- random:  the colors are anywhere in the 16.7 million, so of() mostly misses
+ *
+ * For each, the program reports nanoseconds and bytes allocated per lookup, the latter
+ * from the HotSpot-specific com.sun.management.ThreadMXBean (zero if unavailable).
+ *
+ * Sample usage (the arguments are optional):
+ *
+ *    java immut.RGBBench [lookups] [palette size]
+ */
+public class RGBBench {
+    private static long sink = 0;  // so the JIT can't drop the work
+
+    public static void main(String[ ] args) {
+	int n = (args.length > 0) ? Integer.parseInt(args[0]) : 10_000_000;
+	int paletteSize = (args.length > 1) ? Integer.parseInt(args[1]) : 4096;
+
+	ThreadLocalRandom rand = ThreadLocalRandom.current();
+	int[ ] palette = new int[paletteSize];
+	for (int i = 0; i < paletteSize; i++)
+	    palette[i] = rand.nextInt(1 << 24);
+	int[ ] paletteColors = new int[n], randomColors = new int[n];
+	for (int i = 0; i < n; i++) {
+	    paletteColors[i] = palette[rand.nextInt(paletteSize)];
+	    randomColors[i] = rand.nextInt(1 << 24);
+	}
+
+	System.out.printf("%,d lookups, palette of %d%n", n, paletteSize);
+	System.out.printf("%-8s %-12s %10s %12s%n", "colors", "method", "ns/lookup", "bytes/lookup");
+	for (int round = 0; round < 3; round++) {  // the first two rounds warm up
+	    boolean report = round == 2;
+	    run("palette", "new", paletteColors, false, report);
+	    run("palette", "of()", paletteColors, true, report);
+	    run("random", "new", randomColors, false, report);
+	    run("random", "of()", randomColors, true, report);
+	}
+	if (sink == 42)
+	    System.out.println();
+    }
+
+    private static void run(String workload, String method, int[ ] colors, boolean shared,
+			    boolean report) {
+	long bytes = allocatedBytes();
+	long start = System.nanoTime();
+	long s = 0;
+	for (int rgb : colors) {
+	    int r = rgb >>> 16, g = (rgb >>> 8) & 0xFF, b = rgb & 0xFF;
+	    ImmutableRGB color = shared ?
+		ImmutableRGB.of(r, g, b) :
+		new ImmutableRGB(r, g, b, "color " + rgb);
+	    s += color.getRGB() + color.invert().getRGB();
+	}
+	long elapsed = System.nanoTime() - start;
+	bytes = allocatedBytes() - bytes;
+	sink += s;
+	if (report)
+	    System.out.printf("%-8s %-12s %10.1f %12.1f%n", workload, method,
+			      (double) elapsed / colors.length, (double) bytes / colors.length);
+    }
+
+    private static long allocatedBytes() {
+	java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+	if (mx instanceof com.sun.management.ThreadMXBean)
+	    return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+	return 0;
+    }
+}
@@ -0,0 +1,222 @@
+package immut;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * An image as packed pixels: one int per pixel, in ImmutableRGB.getRGB()'s encoding
+ * (0xRRGGBB), row after row. Processing a million ImmutableRGB objects means a million
+ * allocations, a million pointers to chase, and garbage to collect; processing a million
+ * ints in an array means a sequential sweep through memory, which the hardware does best.
+ * ImmutableRGB objects appear only at the edges, when a caller asks for one pixel's color.
+ *
+ * The pixels live in an int[ ] on the heap, or, for very large images, in a direct buffer
+ * outside the heap (RGBImage.offHeap), where the garbage collector neither scans nor
+ * copies them. Either way, an image holds at most Integer.MAX_VALUE / 4 pixels.
+ *
+ * The bulk operations -- invert, blend, threshold, histogram -- run in a ForkJoinPool, the
+ * common pool unless setPool() says otherwise, in the scatter/gather style of
+ * fjt.FileSearcher: a BandTask for a band of rows splits it in two, forks one half,
+ * computes the other, and joins; a band small enough is a base case, done in one sweep.
+ *
+ *         rows 0..1023                 ## the whole image: split
+ *              |
+ *      +-------+-------+
+ *      |               |
+ *   0..511          512..1023          ## split again, until a band is about 64K pixels
+ *     ...              ...
+ *
+ * The bands don't overlap, so the in-place operations need no locks: each pixel belongs
+ * to one task. The histogram task returns its band's counts, and the join adds them up.
+ */
+public final class RGBImage {
+    private static final int bandPixels = 1 << 16;  // a base case's share of the work
+
+    private final int width;
+    private final int height;
+    private final int[ ] pixels;       // on the heap, or null
+    private final IntBuffer offHeap;   // off the heap, or null
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    // A black image on the heap.
+    public RGBImage(int width, int height) {
+	this(width, height, false);
+    }
+
+    // A black image outside the heap.
+    public static RGBImage offHeap(int width, int height) {
+	return new RGBImage(width, height, true);
+    }
+
+    private RGBImage(int width, int height, boolean direct) {
+	if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE / 4)
+	    throw new IllegalArgumentException("bad size: " + width + " x " + height);
+	this.width = width;
+	this.height = height;
+	if (direct) {
+	    this.pixels = null;
+	    this.offHeap = ByteBuffer.allocateDirect(width * height * 4)
+		.order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+	else {
+	    this.pixels = new int[width * height];
+	    this.offHeap = null;
+	}
+    }
+
+    public int getWidth()      { return width; }
+    public int getHeight()     { return height; }
+    public boolean isOffHeap() { return offHeap != null; }
+
+    // The pool for the bulk operations: e.g., new ForkJoinPool(1) to run them sequentially.
+    public void setPool(ForkJoinPool pool) {
+	this.pool = pool;
+    }
+
+    public int getRGB(int x, int y) {
+	return get(index(x, y));
+    }
+
+    public void setRGB(int x, int y, int rgb) {
+	set(index(x, y), rgb & 0xFFFFFF);
+    }
+
+    public ImmutableRGB getColor(int x, int y) {
+	int rgb = getRGB(x, y);
+	return ImmutableRGB.of(rgb >>> 16, (rgb >>> 8) & 0xFF, rgb & 0xFF);
+    }
+
+    public void setColor(int x, int y, ImmutableRGB color) {
+	setRGB(x, y, color.getRGB());
+    }
+
+    // Each pixel to its inverse, 255 - value in each channel, as ImmutableRGB.invert().
+    public void invert() {
+	pool.invoke(new BandTask(this, BandTask.invert, 0, height, null, 0));
+    }
+
+    // Mix another image of the same size into this one: each channel becomes
+    // (this * (255 - alpha) + other * alpha) / 255, so alpha 0 keeps this image as is,
+    // and alpha 255 copies the other.
+    public void blend(RGBImage other, int alpha) {
+	if (other.width != width || other.height != height)
+	    throw new IllegalArgumentException("images differ in size");
+	if (alpha < 0 || alpha > 255)
+	    throw new IllegalArgumentException("alpha must be from 0 through 255");
+	pool.invoke(new BandTask(this, BandTask.blend, 0, height, other, alpha));
+    }
+
+    // Each pixel to white if its luminance is at least the level, else to black.
+    public void threshold(int level) {
+	pool.invoke(new BandTask(this, BandTask.threshold, 0, height, null, level));
+    }
+
+    // Counts of each value, 0 through 255, in the red, green, and blue channels:
+    // histogram()[0][v] is the number of pixels whose red is v, and so on.
+    public long[ ][ ] histogram() {
+	long[ ] counts = pool.invoke(new BandTask(this, BandTask.histogram, 0, height, null, 0));
+	long[ ][ ] channels = new long[3][256];
+	for (int c = 0; c < 3; c++)
+	    System.arraycopy(counts, c * 256, channels[c], 0, 256);
+	return channels;
+    }
+
+    // The luminance, 0 through 255, of a packed color: the usual weights, in 256ths.
+    static int luminance(int rgb) {
+	return (77 * (rgb >>> 16) + 150 * ((rgb >>> 8) & 0xFF) + 29 * (rgb & 0xFF)) >>> 8;
+    }
+
+    // v / 255 for v from 0 through 255 * 255, without the division.
+    private static int div255(int v) {
+        return (v + 1 + (v >>> 8)) >>> 8;
+    }
+
+    private int index(int x, int y) {
+	if (x < 0 || x >= width || y < 0 || y >= height)
+	    throw new IndexOutOfBoundsException("(" + x + ", " + y + ")");
+	return y * width + x;
+    }
+
+    private int get(int i) {
+	return (pixels != null) ? pixels[i] : offHeap.get(i);
+    }
+
+    private void set(int i, int rgb) {
+	if (pixels != null)
+	    pixels[i] = rgb;
+	else
+	    offHeap.put(i, rgb);
+    }
+
+    // A bulk operation on rows [from, to). The result is the histogram's counts for the
+    // band, in one array of 3 x 256; the other operations return null.
+    private static final class BandTask extends RecursiveTask<long[ ]> {
+	private static final long serialVersionUID = 1L;
+	static final int invert = 0, blend = 1, threshold = 2, histogram = 3;
+
+	private final RGBImage image;
+	private final int op;
+	private final int from, to;
+	private final RGBImage other;      // blend's second image
+	private final int arg;             // blend's alpha, threshold's level
+
+	BandTask(RGBImage image, int op, int from, int to, RGBImage other, int arg) {
+	    this.image = image;
+	    this.op = op;
+	    this.from = from;
+	    this.to = to;
+	    this.other = other;
+	    this.arg = arg;
+	}
+
+	@Override
+	protected long[ ] compute() {
+	    // Recursive case: split the band, fork the top half, and do the bottom here.
+	    if ((long) (to - from) * image.width > bandPixels && to - from > 1) {
+		int mid = (from + to) >>> 1;
+		BandTask top = new BandTask(image, op, from, mid, other, arg);
+		top.fork();
+		long[ ] bottom = new BandTask(image, op, mid, to, other, arg).compute();
+		long[ ] counts = top.join();       // the 'join' in fork-join
+		if (counts != null)
+		    for (int i = 0; i < counts.length; i++)
+			counts[i] += bottom[i];
+		return counts;
+	    }
+	    // Base case: one sweep through the band.
+	    int start = from * image.width, end = to * image.width;
+	    switch (op) {
+	    case invert:
+		for (int i = start; i < end; i++)
+		    image.set(i, image.get(i) ^ 0xFFFFFF);
+		return null;
+	    case blend:
+		int a = arg, keep = 255 - arg;
+		for (int i = start; i < end; i++) {
+		    int p = image.get(i), q = other.get(i);
+		    int r = div255((p >>> 16) * keep + (q >>> 16) * a);
+		    int g = div255(((p >>> 8) & 0xFF) * keep + ((q >>> 8) & 0xFF) * a);
+		    int b = div255((p & 0xFF) * keep + (q & 0xFF) * a);
+		    image.set(i, (r << 16) | (g << 8) | b);
+		}
+		return null;
+	    case threshold:
+		for (int i = start; i < end; i++)
+		    image.set(i, (luminance(image.get(i)) >= arg) ? 0xFFFFFF : 0);
+		return null;
+	    default:
+		long[ ] counts = new long[3 * 256];
+		for (int i = start; i < end; i++) {
+		    int p = image.get(i);
+		    counts[p >>> 16]++;
+		    counts[256 + ((p >>> 8) & 0xFF)]++;
+		    counts[512 + (p & 0xFF)]++;
+		}
+		return counts;
+	    }
+	}
+    }
+}
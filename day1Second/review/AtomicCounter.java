@@ -6,6 +6,9 @@ import java.util.concurrent.atomic.AtomicInteger;
    Two classes to illustrate explicit versus 'baked in' synchronization.
    For convenience, both classes are in the same file, but the 
    SynchronizedCounter class otherwise would be public and in its own file.
+
+   Under heavy contention, every thread's CAS on the one AtomicInteger fights over a
+   single cache line; StripedCounter has the same methods but spreads the updates out.
  */
 
 final public class AtomicCounter {
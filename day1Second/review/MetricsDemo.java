@@ -0,0 +1,80 @@
+package review;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A MetricsRegistry on a small producer/consumer program: the main-thread queues requests,
+ * and worker threads take and handle them. The workers count what they handle, and the
+ * failures, and time each request; a gauge reports the queue's depth. An exporter
+ * snapshots the registry a few times a second into a file, if one is named, or else into
+ * memory, in which case the program prints the lines at the end.
+ *
+ * Sample usage (the arguments are optional):
+ *
+ *    java review.MetricsDemo [workers] [requests] [file for the metrics]
+ */
+public class MetricsDemo {
+    public static void main(String[ ] args) throws Exception {
+	int workers  = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+	int requests = (args.length > 1) ? Integer.parseInt(args[1]) : 2_000_000;
+
+	MetricsRegistry registry = new MetricsRegistry();
+	final BlockingQueue<Integer> queue = new ArrayBlockingQueue<Integer>(1024);
+	final StripedCounter handled = registry.counter("requests.handled");
+	final StripedCounter failed = registry.counter("requests.failed");
+	final StripedTimer timer = registry.timer("requests.time");
+	registry.gauge("queue.depth", new MetricsRegistry.Gauge() {
+		@Override
+		public long value() {
+		    return queue.size();
+		}
+	    });
+
+	MetricsExporter.MemorySink memory = new MetricsExporter.MemorySink(1000);
+	MetricsExporter.FileSink file = (args.length > 2) ? new MetricsExporter.FileSink(args[2]) : null;
+	MetricsExporter exporter = new MetricsExporter(registry, 250, (file != null) ? file : memory);
+	exporter.start();
+
+	Thread[ ] ts = new Thread[workers];
+	for (int i = 0; i < workers; i++) {
+	    ts[i] = new Thread(new Runnable() {
+		    @Override
+		    public void run() {
+			try {
+			    while (true) {
+				int request = queue.take();
+				if (request < 0)
+				    return;                  // end of the stream
+				long start = timer.start();
+				long x = request;
+				for (int k = 0; k < 100; k++)  // the 'work'
+				    x = x * 6364136223846793005L + 1442695040888963407L;
+				if ((x & 1023) == 0)
+				    failed.increment();
+				handled.increment();
+				timer.stop(start);
+			    }
+			}
+			catch(InterruptedException e) { }
+		    }
+		});
+	    ts[i].start();
+	}
+	ThreadLocalRandom rand = ThreadLocalRandom.current();
+	for (int i = 0; i < requests; i++)
+	    queue.put(rand.nextInt(Integer.MAX_VALUE));
+	for (int i = 0; i < workers; i++)
+	    queue.put(-1);
+	for (Thread t : ts)
+	    t.join();
+
+	exporter.close();
+	if (file != null)
+	    file.close();
+	for (String line : memory.getLines())
+	    System.out.println(line);
+	System.out.println("handled " + handled + ", failed " + failed + "; " + timer);
+    }
+}
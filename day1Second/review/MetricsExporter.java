@@ -0,0 +1,165 @@
+package review;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A daemon thread that, every so often, takes a snapshot of a MetricsRegistry and writes
+ * it to a Sink, one line per value:
+ *
+ *    <time in ms>  <name>  <value>
+ *
+ *  -- a counter's value is its change since the previous snapshot
+ *  -- a timer contributes three lines: name.count and name.totalNanos, likewise changes,
+ *     and name.maxNanos, the longest time in the interval
+ *  -- a gauge's value is its current value
+ *
+ * Deltas keep the lines meaningful on their own: a reader that sums a counter's lines
+ * gets its total, and one that divides by the interval gets its rate. The counters
+ * themselves are never reset, so other readers of the registry see running totals.
+ *
+ * Two sinks come with the exporter: a FileSink, which appends lines to a file, and a
+ * MemorySink, which keeps the most recent lines in memory (for tests, or a status page).
+ *
+ *    MetricsExporter exporter = new MetricsExporter(registry, 1000, new MetricsExporter.FileSink("metrics.log"));
+ *    exporter.start();
+ *    ...
+ *    exporter.close();  // a last snapshot, then stop
+ */
+public final class MetricsExporter extends Thread implements Closeable {
+    public interface Sink {
+	void write(long timeMillis, String name, long value) throws IOException;
+	void flush() throws IOException;
+    }
+
+    private final MetricsRegistry registry;
+    private final long periodMillis;
+    private final Sink sink;
+    private final Map<String, Long> previous = new HashMap<String, Long>();
+    private volatile IOException lastError = null;
+
+    public MetricsExporter(MetricsRegistry registry, long periodMillis, Sink sink) {
+	super("MetricsExporter");
+	setDaemon(true);
+	this.registry = registry;
+	this.periodMillis = periodMillis;
+	this.sink = sink;
+    }
+
+    @Override
+    public void run() {
+	while (true) {
+	    try {
+		Thread.sleep(periodMillis);
+	    }
+	    catch(InterruptedException e) {
+		export();  // close(): the last snapshot
+		return;
+	    }
+	    export();
+	}
+    }
+
+    // Take a snapshot now. A failed write is kept for getLastError(); the next snapshot
+    // tries again.
+    public synchronized void export() {
+	long now = System.currentTimeMillis();
+	try {
+	    for (Map.Entry<String, Object> e : registry.getMetrics().entrySet()) {
+		String name = e.getKey();
+		Object m = e.getValue();
+		if (m instanceof StripedCounter)
+		    sink.write(now, name, delta(name, ((StripedCounter) m).sum()));
+		else if (m instanceof StripedTimer) {
+		    StripedTimer t = (StripedTimer) m;
+		    sink.write(now, name + ".count", delta(name + ".count", t.getCount()));
+		    sink.write(now, name + ".totalNanos", delta(name + ".totalNanos", t.getTotalNanos()));
+		    sink.write(now, name + ".maxNanos", t.maxThenReset());
+		}
+		else
+		    sink.write(now, name, ((MetricsRegistry.Gauge) m).value());
+	    }
+	    sink.flush();
+	}
+	catch(IOException e) {
+	    lastError = e;
+	}
+    }
+
+    public IOException getLastError() {
+	return lastError;
+    }
+
+    // Stop, after one last snapshot.
+    @Override
+    public void close() {
+	interrupt();
+	try {
+	    join();
+	}
+	catch(InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+    }
+
+    private long delta(String name, long value) {
+	Long before = previous.put(name, value);
+	return (before == null) ? value : value - before;
+    }
+
+    // Appends lines to a file.
+    public static final class FileSink implements Sink, Closeable {
+	private final BufferedWriter out;
+
+	public FileSink(String fileName) throws IOException {
+	    out = new BufferedWriter(new FileWriter(fileName, true));
+	}
+
+	@Override
+	public void write(long timeMillis, String name, long value) throws IOException {
+	    out.write(timeMillis + " " + name + " " + value);
+	    out.newLine();
+	}
+
+	@Override
+	public void flush() throws IOException {
+	    out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+	    out.close();
+	}
+    }
+
+    // Keeps the latest lines, up to a given number.
+    public static final class MemorySink implements Sink {
+	private final ArrayDeque<String> lines = new ArrayDeque<String>();
+	private final int capacity;
+
+	public MemorySink(int capacity) {
+	    this.capacity = capacity;
+	}
+
+	@Override
+	public synchronized void write(long timeMillis, String name, long value) {
+	    if (lines.size() == capacity)
+		lines.removeFirst();
+	    lines.addLast(timeMillis + " " + name + " " + value);
+	}
+
+	@Override
+	public void flush() { }
+
+	public synchronized List<String> getLines() {
+	    return new ArrayList<String>(lines);
+	}
+    }
+}
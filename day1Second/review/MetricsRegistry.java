@@ -0,0 +1,72 @@
+package review;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Named counters, gauges, and timers, shared by every part of a program that wants to be
+ * measured -- a thread pool's completed jobs, a Banker's batches, an echo server's open
+ * connections -- and read by a MetricsExporter.
+ *
+ * The choice for a hot-path counter used to be an AtomicCounter, one AtomicInteger that
+ * every thread's CAS fights over, or a SynchronizedCounter, one lock that every thread
+ * queues for. Either one slows down the very code it counts, and more so the busier that
+ * code gets. Here, counters are StripedCounters and timers StripedTimers: uncontended,
+ * they cost one CAS; contended, they spread out over per-thread cells.
+ *
+ *  -- counter(name), timer(name): the metric of that name, created on first use; look it
+ *     up once and keep the reference, as the lookup is a hash-map get()
+ *  -- gauge(name, g): a value computed when read, such as a queue's size()
+ *
+ * A name belongs to one kind of metric: asking for a counter under a timer's name, say,
+ * is an IllegalArgumentException.
+ */
+public final class MetricsRegistry {
+    public interface Gauge {
+	long value();
+    }
+
+    private final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<String, Object>();
+
+    public StripedCounter counter(String name) {
+	Object m = metrics.get(name);
+	if (m == null) {
+	    m = new StripedCounter();
+	    Object old = metrics.putIfAbsent(name, m);
+	    if (old != null)
+		m = old;                      // another thread registered it first
+	}
+	return (StripedCounter) check(name, m, StripedCounter.class);
+    }
+
+    public StripedTimer timer(String name) {
+	Object m = metrics.get(name);
+	if (m == null) {
+	    m = new StripedTimer();
+	    Object old = metrics.putIfAbsent(name, m);
+	    if (old != null)
+		m = old;
+	}
+	return (StripedTimer) check(name, m, StripedTimer.class);
+    }
+
+    public void gauge(String name, Gauge gauge) {
+	Object old = metrics.putIfAbsent(name, gauge);
+	if (old != null && old != gauge)
+	    throw new IllegalArgumentException(name + " is already registered");
+    }
+
+    // Every metric, in the order of their names: StripedCounters, StripedTimers, and Gauges.
+    public SortedMap<String, Object> getMetrics() {
+	return new TreeMap<String, Object>(metrics);
+    }
+
+    private static Object check(String name, Object metric, Class<?> kind) {
+	if (!kind.isInstance(metric))
+	    throw new IllegalArgumentException(name + " is a " + metric.getClass().getSimpleName() +
+					       ", not a " + kind.getSimpleName());
+	return metric;
+    }
+}
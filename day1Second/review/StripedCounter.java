@@ -0,0 +1,198 @@
+package review;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A drop-in for AtomicCounter (increment, decrement, value) for counters that many threads
+ * hit at once. An AtomicCounter is one AtomicInteger: every increment is a CAS on the same
+ * cache line, which must travel from core to core, and under contention most CASes fail
+ * and retry. A StripedCounter adapts to contention instead:
+ *
+ *  -- uncontended, it is a single 'base' value updated by CAS, as cheap as an AtomicInteger
+ *  -- the first failed CAS on the base inflates the counter into an array of cells, each
+ *     padded onto a cache line of its own; a thread then updates 'its' cell, chosen by a
+ *     per-thread probe
+ *  -- a failed CAS on a cell means that two threads share it: the array doubles, up to
+ *     the number of cores, or else the thread moves its probe to another cell
+ *
+ * Updates thus get cheaper as contention grows, and reads get dearer: value() sums the
+ * base and every cell, and is exact only when no update is in flight. This is the design
+ * of java.util.concurrent.atomic.LongAdder, written out. sumThenReset() loses no update
+ * that races with it, since each cell is taken and zeroed in one atomic step (getAndSet)
+ * -- as in LongAdder.sumThenReset() from Java 9 on, though not in Java 8's, which reads
+ * each cell and then sets it to 0, and so can drop an update that lands in between.
+ */
+public final class StripedCounter {
+    private static final int maxCells = ceilingPowerOf2(Runtime.getRuntime().availableProcessors());
+
+    private static final AtomicLongFieldUpdater<StripedCounter> baseUpdater =
+	AtomicLongFieldUpdater.newUpdater(StripedCounter.class, "base");
+    private static final AtomicIntegerFieldUpdater<StripedCounter> busyUpdater =
+	AtomicIntegerFieldUpdater.newUpdater(StripedCounter.class, "busy");
+
+    // The per-thread cell index, rehashed on collision; shared by all StripedCounters.
+    private static final ThreadLocal<int[ ]> probes = new ThreadLocal<int[ ]>() {
+	    @Override
+	    protected int[ ] initialValue() {
+		return new int[ ] { mix((int) Thread.currentThread().getId()) };
+	    }
+	};
+
+    private volatile long base = 0;
+    private volatile StripedCell[ ] cells = null;  // null until the first contention
+    private volatile int busy = 0;          // 1 while a thread (re)builds the cells
+
+    public void increment() {
+	add(1);
+    }
+
+    public void decrement() {
+	add(-1);
+    }
+
+    // The sum, as an int, like AtomicCounter.value().
+    public int value() {
+	return (int) sum();
+    }
+
+    public void add(long x) {
+	StripedCell[ ] cs = cells;
+	if (cs == null) {
+	    long b = base;
+	    if (baseUpdater.compareAndSet(this, b, b + x))
+		return;                         // uncontended: the common case
+	}
+	else {
+	    int[ ] probe = probes.get();
+	    StripedCell c = cs[probe[0] & (cs.length - 1)];
+	    long v = c.value;
+	    if (c.compareAndSet(v, v + x))
+		return;
+	}
+	contended(x);
+    }
+
+    public long sum() {
+	long s = base;
+	StripedCell[ ] cs = cells;
+	if (cs != null)
+	    for (StripedCell c : cs)
+		s += c.value;
+	return s;
+    }
+
+    // The sum, leaving the counter at zero: for a reporter that wants each interval's
+    // count. Updates concurrent with the call land either in this sum or in the next.
+    public long sumThenReset() {
+	long s = baseUpdater.getAndSet(this, 0);
+	StripedCell[ ] cs = cells;
+	if (cs != null)
+	    for (StripedCell c : cs)
+		s += c.getAndSet(0);
+	return s;
+    }
+
+    // How many cells the counter has spread over: 1 until it first meets contention.
+    public int getStripes() {
+	StripedCell[ ] cs = cells;
+	return (cs == null) ? 1 : cs.length;
+    }
+
+    @Override
+    public String toString() {
+	return Long.toString(sum());
+    }
+
+    // A CAS failed: retry, inflating or growing the cells, or rehashing, as needed.
+    private void contended(long x) {
+	int[ ] probe = probes.get();
+	boolean collided = false;
+	while (true) {
+	    StripedCell[ ] cs = cells;
+	    if (cs == null) {
+		if (busyUpdater.compareAndSet(this, 0, 1)) {
+		    try {
+			if (cells == null)
+			    cells = newCells(null, Math.min(2, maxCells));
+		    }
+		    finally {
+			busy = 0;
+		    }
+		    continue;
+		}
+		long b = base;                  // someone else is inflating: try the base
+		if (baseUpdater.compareAndSet(this, b, b + x))
+		    return;
+		continue;
+	    }
+	    StripedCell c = cs[probe[0] & (cs.length - 1)];
+	    long v = c.value;
+	    if (c.compareAndSet(v, v + x))
+		return;
+	    if (collided && cs.length < maxCells && busyUpdater.compareAndSet(this, 0, 1)) {
+		try {
+		    if (cells == cs)
+			cells = newCells(cs, cs.length * 2);
+		}
+		finally {
+		    busy = 0;
+		}
+		collided = false;
+		continue;
+	    }
+	    collided = true;
+	    probe[0] = mix(probe[0] + 0x61C88647);  // try another cell next time
+	}
+    }
+
+    // The existing cells keep their counts; the new ones start at zero.
+    private static StripedCell[ ] newCells(StripedCell[ ] old, int n) {
+	StripedCell[ ] cs = new StripedCell[n];
+	int i = 0;
+	if (old != null)
+	    for (; i < old.length; i++)
+		cs[i] = old[i];
+	for (; i < n; i++)
+	    cs[i] = new StripedCell();
+	return cs;
+    }
+
+    private static int mix(int h) {
+	h *= 0x9E3779B9;
+	return h ^ (h >>> 16);
+    }
+
+    private static int ceilingPowerOf2(int n) {
+	int p = 1;
+	while (p < n)
+	    p <<= 1;
+	return p;
+    }
+}
+
+// A cell: one long, padded with 7 longs on either side so that no two cells, and nothing
+// else, share its cache line. The JVM lays out superclass fields first, so the padding
+// classes keep their order.
+abstract class StripedCellPad0 {
+    long p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class StripedCellValue extends StripedCellPad0 {
+    volatile long value = 0;
+}
+
+final class StripedCell extends StripedCellValue {
+    private static final AtomicLongFieldUpdater<StripedCellValue> valueUpdater =
+	AtomicLongFieldUpdater.newUpdater(StripedCellValue.class, "value");
+
+    long p11, p12, p13, p14, p15, p16, p17;
+
+    boolean compareAndSet(long expect, long update) {
+	return valueUpdater.compareAndSet(this, expect, update);
+    }
+
+    long getAndSet(long update) {
+	return valueUpdater.getAndSet(this, update);
+    }
+}
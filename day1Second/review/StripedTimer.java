@@ -0,0 +1,59 @@
+package review;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A timer for a MetricsRegistry: how many times something happened, how long it took in
+ * all, and the longest single time. The count and the total are StripedCounters, so
+ * threads timing the same code don't fight over one cache line; the maximum is a CAS,
+ * tried only when a time beats it, which after a short while is rare.
+ *
+ *    StripedTimer timer = registry.timer("banker.batch");
+ *    long start = timer.start();
+ *    ...                                  // the code being timed
+ *    timer.stop(start);
+ */
+public final class StripedTimer {
+    private final StripedCounter count = new StripedCounter();
+    private final StripedCounter total = new StripedCounter();
+    private final AtomicLong max = new AtomicLong(0);          // ever
+    private final AtomicLong intervalMax = new AtomicLong(0);  // since maxThenReset()
+
+    public long start() {
+	return System.nanoTime();
+    }
+
+    public void stop(long start) {
+	record(System.nanoTime() - start);
+    }
+
+    public void record(long nanos) {
+	count.increment();
+	total.add(nanos);
+	raise(intervalMax, nanos);
+	raise(max, nanos);
+    }
+
+    public long getCount()      { return count.sum(); }
+    public long getTotalNanos() { return total.sum(); }
+    public long getMaxNanos()   { return max.get(); }
+
+    // The longest time since the last call, for the exporter that reports per interval.
+    // With more than one caller, each sees only part of the intervals' maxima.
+    public long maxThenReset() {
+	return intervalMax.getAndSet(0);
+    }
+
+    private static void raise(AtomicLong m, long nanos) {
+	long v;
+	while (nanos > (v = m.get()) && !m.compareAndSet(v, nanos))
+	    ;
+    }
+
+    @Override
+    public String toString() {
+	long n = getCount();
+	return String.format("count=%d mean=%dns max=%dns", n,
+			     (n == 0) ? 0 : getTotalNanos() / n, getMaxNanos());
+    }
+}
@@ -0,0 +1,292 @@
+package watchdog;
+
+import java.io.PrintStream;
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A daemon thread that keeps an eye on the JVM's locks, so that a deadlock shows up in a
+ * log rather than as a hung process. Every so often, it samples the ThreadMXBean for:
+ *
+ *  -- deadlocks: findDeadlockedThreads() finds cycles of threads each waiting for a lock
+ *     that the next one holds, whether the locks are monitors ('synchronized', as in
+ *     dlock.Deadlock) or ownable synchronizers (a ReentrantLock, as in syncREL). Each new
+ *     cycle is reported once, with every thread's stack and the locks it holds.
+ *
+ *  -- contention: every thread that is BLOCKED on a monitor, or parked waiting for a lock
+ *     that some other thread owns, is charged to that lock. Over many samples, a lock's
+ *     count of waiting threads approximates its total wait time (count x interval); the
+ *     report lists the most contended locks, each with the stack of a waiter, and the
+ *     JVM's own per-thread totals of blocked entries and blocked time.
+ *
+ * The JVM forgets a thread's totals once the thread has exited, and a worker that did its
+ * blocking and finished before report() would otherwise leave no trace. So each sample
+ * keeps every thread's latest totals, and the report lists exited threads too, with their
+ * totals as of the last sample that saw them alive. Of the exited threads, only the
+ * 'maxExited' most blocked are kept, so that a JVM with many short-lived threads doesn't
+ * pile them up.
+ *
+ * A sample costs CPU time, much of it in collecting stacks, so the cost is bounded twice:
+ * stacks are cut at a given depth, and the watchdog measures its own CPU time per sample
+ * and, if need be, stretches the interval so that it uses no more than the given fraction
+ * of one core.
+ *
+ *    LockWatchdog watchdog = new LockWatchdog(100, 0.01, 8, System.err); // 100 ms, 1% of a core
+ *    watchdog.start();
+ *    ...
+ *    watchdog.report(System.out, 5);                                      // the top 5 locks
+ */
+public final class LockWatchdog extends Thread {
+    private static final int maxExited = 256; // exited threads whose totals are kept
+    private final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+    private final long intervalMillis;   // the shortest interval between samples
+    private final double maxCpuFraction; // of one core
+    private final int maxDepth;          // stack frames per thread
+    private final PrintStream out;       // deadlock reports
+
+    private final Map<String, Contention> locks = new HashMap<String, Contention>();
+    private final Set<Long> reported = new HashSet<Long>(); // threads in reported cycles
+    private final Map<Long, Totals> threads = new HashMap<Long, Totals>(); // by thread id
+    private long sweep = 0;              // how many times the totals were taken: under 'threads'
+    private volatile long samples = 0;
+    private volatile long deadlocks = 0;
+    private volatile long cpuNanos = 0;
+    private volatile long startNanos = 0;
+    private double averageCpu = 0;       // nanoseconds per sample, smoothed
+    private volatile long currentInterval;
+
+    public LockWatchdog(long intervalMillis, double maxCpuFraction, int maxDepth, PrintStream out) {
+	super("LockWatchdog");
+	setDaemon(true);
+	this.intervalMillis = intervalMillis;
+	this.maxCpuFraction = maxCpuFraction;
+	this.maxDepth = maxDepth;
+	this.out = out;
+	this.currentInterval = intervalMillis;
+	if (mx.isThreadContentionMonitoringSupported())
+	    mx.setThreadContentionMonitoringEnabled(true);  // for blocked times
+    }
+
+    @Override
+    public void run() {
+	startNanos = System.nanoTime();
+	try {
+	    while (!isInterrupted()) {
+		Thread.sleep(currentInterval);
+		long cpuStart = mx.getCurrentThreadCpuTime();
+		sample();
+		long cpu = mx.getCurrentThreadCpuTime() - cpuStart;
+		cpuNanos += cpu;
+		samples++;
+		// Stretch the interval if samples cost more than the budget allows.
+		averageCpu = 0.8 * averageCpu + 0.2 * cpu;
+		currentInterval = Math.max(intervalMillis,
+					   (long) (averageCpu / maxCpuFraction / 1_000_000L));
+	    }
+	}
+	catch(InterruptedException e) { }  // stop the watchdog
+    }
+
+    public long getSamples()          { return samples; }
+    public long getDeadlocks()        { return deadlocks; }         // cycles found so far
+    public long getCurrentInterval()  { return currentInterval; }   // in milliseconds
+
+    // The watchdog's CPU time per unit of elapsed time since it started: e.g., 0.01 for 1%.
+    public double getCpuFraction() {
+	long elapsed = System.nanoTime() - startNanos;
+	return (startNanos == 0 || elapsed == 0) ? 0 : (double) cpuNanos / elapsed;
+    }
+
+    // Print the most contended locks, and the threads that have spent longest blocked.
+    public void report(PrintStream ps, int top) {
+	List<Contention> sorted;
+	synchronized(locks) {
+	    sorted = new ArrayList<Contention>(locks.values());
+	}
+	Collections.sort(sorted, new Comparator<Contention>() {
+		@Override
+		public int compare(Contention a, Contention b) {
+		    return Long.compare(b.waiters, a.waiters);
+		}
+	    });
+	ps.printf("LockWatchdog: %d samples, %d deadlock(s), %.3f%% of a core, every %d ms%n",
+		  samples, deadlocks, getCpuFraction() * 100, currentInterval);
+	for (int i = 0; i < Math.min(top, sorted.size()); i++) {
+	    Contention c = sorted.get(i);
+	    ps.printf("  %s: %d waiters sampled (~%d ms of waiting), at most %d at once%n",
+		      c.lock, c.waiters, c.waitMillis, c.maxQueue);
+	    for (StackTraceElement e : c.stack)
+		ps.println("      at " + e);
+	}
+	List<Totals> totals;
+	synchronized(threads) {
+	    remember(mx.getThreadInfo(mx.getAllThreadIds()));  // the live threads, up to date
+	    totals = new ArrayList<Totals>();
+	    for (Totals t : threads.values())
+		totals.add(t.copy(t.seen == sweep));
+	}
+	Collections.sort(totals, new Comparator<Totals>() {
+		@Override
+		public int compare(Totals a, Totals b) {
+		    return Long.compare(b.blocked(), a.blocked());
+		}
+	    });
+	for (int i = 0; i < Math.min(top, totals.size()); i++) {
+	    Totals t = totals.get(i);
+	    if (t.blocked() == 0)
+		break;
+	    ps.printf("  thread %s%s: blocked %d times (%d ms), waited %d times (%d ms)%n",
+		      t.name, t.alive ? "" : " (exited)", t.blockedCount, t.blockedMillis,
+		      t.waitedCount, t.waitedMillis);
+	}
+    }
+
+    // Take each thread's latest totals; call with 'threads' locked. A thread that none of
+    // the infos covers has exited (an info is null for a thread that exited meanwhile).
+    private void remember(ThreadInfo[ ] infos) {
+	sweep++;
+	for (ThreadInfo info : infos) {
+	    if (info == null)
+		continue;
+	    Totals t = threads.get(info.getThreadId());
+	    if (t == null)
+		threads.put(info.getThreadId(), t = new Totals(info.getThreadName()));
+	    t.update(info, sweep);
+	}
+	// Forget the least blocked of the exited threads, beyond maxExited of them.
+	int exited = 0;
+	for (Totals t : threads.values())
+	    if (t.seen != sweep)
+		exited++;
+	for (; exited > maxExited; exited--) {
+	    Map.Entry<Long, Totals> least = null;
+	    for (Map.Entry<Long, Totals> e : threads.entrySet())
+		if (e.getValue().seen != sweep &&
+		    (least == null || e.getValue().blocked() < least.getValue().blocked()))
+		    least = e;
+	    threads.remove(least.getKey());
+	}
+    }
+
+    private void sample() {
+	long[ ] ids = mx.findDeadlockedThreads();  // monitors and ownable synchronizers
+	if (ids != null)
+	    reportDeadlock(ids);
+
+	ThreadInfo[ ] infos = mx.getThreadInfo(mx.getAllThreadIds(), maxDepth);
+	synchronized(threads) {
+	    remember(infos);
+	}
+	Map<String, Integer> queues = new HashMap<String, Integer>();
+	for (ThreadInfo t : infos) {
+	    if (t == null || t.getLockName() == null)
+		continue;
+	    // A thread parked on a Condition, or idle in a queue's take(), waits for no owner.
+	    boolean waitsForLock = t.getThreadState() == Thread.State.BLOCKED ||
+		t.getLockOwnerId() != -1;
+	    if (!waitsForLock)
+		continue;
+	    String name = t.getLockName();
+	    Integer q = queues.get(name);
+	    queues.put(name, (q == null) ? 1 : q + 1);
+	    synchronized(locks) {
+		Contention c = locks.get(name);
+		if (c == null)
+		    locks.put(name, c = new Contention(name, t.getStackTrace()));
+		c.waiters++;
+		c.waitMillis += currentInterval;  // each waiter stands for one interval
+	    }
+	}
+	synchronized(locks) {
+	    for (Map.Entry<String, Integer> e : queues.entrySet()) {
+		Contention c = locks.get(e.getKey());
+		c.maxQueue = Math.max(c.maxQueue, e.getValue());
+	    }
+	}
+    }
+
+    private void reportDeadlock(long[ ] ids) {
+	boolean seen = true;
+	for (long id : ids)
+	    seen &= reported.contains(id);
+	if (seen)
+	    return;                            // this cycle was reported already
+	for (long id : ids)
+	    reported.add(id);
+	deadlocks++;
+
+	out.println("LockWatchdog: DEADLOCK among " + ids.length + " threads");
+	for (ThreadInfo t : mx.getThreadInfo(ids, true, true)) {
+	    if (t == null)
+		continue;
+	    out.printf("  \"%s\" %s on %s, held by \"%s\"%n", t.getThreadName(),
+		       t.getThreadState(), t.getLockName(), t.getLockOwnerName());
+	    for (StackTraceElement e : t.getStackTrace())
+		out.println("      at " + e);
+	    for (LockInfo held : t.getLockedSynchronizers())
+		out.println("    holds " + held);
+	    if (t.getLockedMonitors().length > 0)
+		out.println("    holds " + Arrays.toString(t.getLockedMonitors()));
+	}
+	out.flush();
+    }
+
+    // One lock's record: how many waiting threads the samples found, and where.
+    private static final class Contention {
+	final String lock;
+	final StackTraceElement[ ] stack;     // of the first waiter seen
+	long waiters = 0;
+	long waitMillis = 0;
+	int maxQueue = 0;
+
+	Contention(String lock, StackTraceElement[ ] stack) {
+	    this.lock = lock;
+	    this.stack = stack;
+	}
+    }
+
+    // One thread's totals from the JVM, as of the latest sweep that found the thread alive.
+    private static final class Totals {
+	final String name;
+	long blockedCount, blockedMillis, waitedCount, waitedMillis;
+	long seen;                           // the sweep that last found the thread alive
+	boolean alive;                       // in a report's copy: still alive at the report?
+
+	Totals(String name) {
+	    this.name = name;
+	}
+
+	void update(ThreadInfo info, long sweep) {
+	    blockedCount = info.getBlockedCount();
+	    blockedMillis = Math.max(0, info.getBlockedTime());  // -1: contention monitoring is off
+	    waitedCount = info.getWaitedCount();
+	    waitedMillis = Math.max(0, info.getWaitedTime());
+	    seen = sweep;
+	}
+
+	long blocked() {
+	    return blockedCount + waitedCount;
+	}
+
+	Totals copy(boolean alive) {
+	    Totals t = new Totals(name);
+	    t.blockedCount = blockedCount;
+	    t.blockedMillis = blockedMillis;
+	    t.waitedCount = waitedCount;
+	    t.waitedMillis = waitedMillis;
+	    t.alive = alive;
+	    return t;
+	}
+    }
+}
@@ -0,0 +1,112 @@
+package watchdog;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The LockWatchdog at work on earlier examples, in the one JVM:
+ *
+ *  -- Miser/Spendthrift 2 and 4 (sync and syncREL) run side by side, so that the watchdog
+ *     charges contention to the synchronized block's lock and to the ReentrantLock
+ *  -- but their critical sections are a few nanoseconds long, and a sample every 20 ms
+ *     seldom catches a thread waiting. So a few 'hot' threads also take turns at a monitor
+ *     and a ReentrantLock, each holding the lock for a millisecond, as a slow call made
+ *     under a lock would: the samples find the others waiting, and the report ranks the
+ *     two locks, with a waiter's stack
+ *  -- then dlock.Deadlock's two Friends bow to each other, and (most likely) deadlock on
+ *     their monitors
+ *  -- and two threads take a pair of ReentrantLocks in opposite orders, as a transfer
+ *     from A to B and one from B to A might; a latch makes sure that they deadlock
+ *
+ * The watchdog reports each cycle, with stacks, and the program then exits.
+ *
+ * Sample usage (the argument is optional):
+ *
+ *    java watchdog.WatchdogDemo [times to iterate]
+ */
+public class WatchdogDemo {
+    public static void main(String[ ] args) throws Exception {
+	final String n = (args.length > 0) ? args[0] : "50000000";
+	LockWatchdog watchdog = new LockWatchdog(20, 0.01, 8, System.out);
+	watchdog.start();
+
+	Thread withSync = new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    sync.RaceConditionSync.main(new String[ ] { n });
+		}
+	    });
+	Thread withREL = new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    syncREL.RaceConditionSyncREL.main(new String[ ] { n });
+		}
+	    });
+	withSync.start();
+	withREL.start();
+	contend(4, 250);
+	withSync.join();
+	withREL.join();
+	watchdog.report(System.out, 5);  // the workers have exited, but their totals are kept
+
+	dlock.Deadlock.main(new String[0]);
+	final ReentrantLock a = new ReentrantLock(), b = new ReentrantLock();
+	final CountDownLatch bothHoldOne = new CountDownLatch(2);
+	crossLock(a, b, bothHoldOne, "A-then-B");
+	crossLock(b, a, bothHoldOne, "B-then-A");
+
+	for (int i = 0; i < 50 && watchdog.getDeadlocks() < 2; i++)
+	    Thread.sleep(100);
+	System.out.println(watchdog.getDeadlocks() + " deadlock(s) found");
+	System.exit(0);    // the deadlocked threads would keep the JVM alive
+    }
+
+    // Threads that take turns at a monitor and at a ReentrantLock, each holding the lock
+    // for a millisecond; returns once they've all finished.
+    private static void contend(int threads, final int rounds) throws InterruptedException {
+	final Object monitor = new Object();
+	final ReentrantLock lock = new ReentrantLock();
+	Thread[ ] hot = new Thread[threads];
+	for (int i = 0; i < threads; i++) {
+	    hot[i] = new Thread(new Runnable() {
+		    @Override
+		    public void run() {
+			try {
+			    for (int r = 0; r < rounds; r++) {
+				synchronized(monitor) {
+				    Thread.sleep(1);
+				}
+				lock.lock();
+				try {
+				    Thread.sleep(1);
+				}
+				finally {
+				    lock.unlock();
+				}
+			    }
+			}
+			catch(InterruptedException e) { }
+		    }
+		}, "hot-" + i);
+	    hot[i].start();
+	}
+	for (Thread t : hot)
+	    t.join();
+    }
+
+    private static void crossLock(final ReentrantLock first, final ReentrantLock second,
+				  final CountDownLatch bothHoldOne, String name) {
+	new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    first.lock();
+		    bothHoldOne.countDown();
+		    try {
+			bothHoldOne.await();
+		    }
+		    catch(InterruptedException e) { }
+		    second.lock();  // never granted
+		}
+	    }, name).start();
+    }
+}
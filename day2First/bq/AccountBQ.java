@@ -24,14 +24,30 @@ package bq;
  *
  * There is a danger of deadlock in this application because 'read' operations on a
  * BlockingQueue do exactly what the name suggests: block, that is, wait until either there's 
- * something to read or there's a timeout. To avoid this danger, it's important that the
- * the application check that there's something in the queue before attempting a 'read'
- * operation.
+ * something to read or there's a timeout. If the Banker blocked in take() after the Miser
+ * and Spendthrift had exited, it would wait forever. An earlier version avoided the danger
+ * by checking, with peek(), that there was something in the queue before a take(), and
+ * by checking whether the customers were still alive -- in a loop that never blocked, and
+ * so kept a processor busy even with nothing to do.
+ *
+ * This version instead has each customer add an 'end of stream' marker to the queue as
+ * its last request. The Banker can then block safely: it counts the markers, and exits
+ * once it has seen one from every customer. Since the queue is first-in-first-out, every
+ * request that a customer made before its marker has been handled by then.
+ *
+ * While blocking, the Banker uses no processor time; once woken, it takes not one request
+ * but as many as are waiting (drainTo), up to a maximum batch size, and can 'linger' a
+ * little for more to arrive before handling the batch. Batching cuts the per-request cost
+ * of waking up and of the queue's lock.
  */
 
 import java.util.concurrent.BlockingQueue;       // interface
 import java.util.concurrent.ArrayBlockingQueue;  // a "bounded buffer" implementation
+import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.lang.management.ManagementFactory;
 
 class Miser extends Thread {       // deposit
     private int howMany;
@@ -45,12 +61,13 @@ class Miser extends Thread {       // deposit
     @Override
     public void run() {
 	for (int i = 0; i < howMany; i++) {
-	    AccountBQ.bankQueue.add(new Integer(+1)); // deposit request
+	    AccountBQ.bankQueue.add(new AccountBQ.Request(+1)); // deposit request
 	    try {
 		Thread.sleep(rand.nextInt(AccountBQ.zsCount)); // 0 to a few ms
 	    }
 	    catch(InterruptedException e) { System.err.println(e); }
 	}
+	AccountBQ.bankQueue.add(AccountBQ.endOfStream); // no more requests from this customer
 	System.out.println("Miser exiting");
     }
 }
@@ -67,50 +84,107 @@ class Spendthrift extends Thread { // withdraw
     @Override
     public void run() {
 	for (int i = 0; i < howMany; i++) {
-	    AccountBQ.bankQueue.add(new Integer(-1)); // withdraw request
+	    AccountBQ.bankQueue.add(new AccountBQ.Request(-1)); // withdraw request
 	    try {
 		Thread.sleep(rand.nextInt(AccountBQ.zsCount)); // 0 to a few ms
 	    }
 	    catch(InterruptedException e) { System.err.println(e); }
 	}
+	AccountBQ.bankQueue.add(AccountBQ.endOfStream); // ditto
 	System.out.println("Spendthrift exiting");
     }
 }
 
 class Banker extends Thread {
-    private Thread miser;
-    private Thread spendthrift;
+    private final int customers;   // how many end-of-stream markers to wait for
+    private final int maxBatch;    // requests handled per wakeup, at most
+    private final long lingerNanos; // how long to wait for a batch to fill up
+    private final Journal journal; // null: no journal
+    private long batches = 0;
+    private long cpuNanos = 0;     // the Banker's own processor time, once it has exited
+
+    Banker(int customers, int maxBatch, long lingerMicros) {
+	this(customers, maxBatch, lingerMicros, null);
+    }
 
-    Banker(Thread miser, Thread spendthrift) {
-	this.miser = miser;
-	this.spendthrift = spendthrift;
+    // With a Journal, the Banker logs each batch of requests, and commits the group, before
+    // applying the requests to the balance; see Journal.
+    Banker(int customers, int maxBatch, long lingerMicros, Journal journal) {
+	if (customers < 1 || maxBatch < 1 || lingerMicros < 0)
+	    throw new IllegalArgumentException("need customers >= 1, maxBatch >= 1, lingerMicros >= 0");
+	this.customers = customers;
+	this.maxBatch = maxBatch;
+	this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+	this.journal = journal;
     }
 
     // In this app, there's exactly one Banker instance; hence, the follwing code
     // is never executed by multiple threads.
     @Override
     public void run() {
-	// Serve any customer that's still alive, or any request still in the queue.
-	while (miser.isAlive()       ||               // Miser is a customer--could post a request.
-	       spendthrift.isAlive() ||               // ditto
-	       AccountBQ.bankQueue.peek() != null) {  // Pending request from terminated customer?
-	    try {
-		// Need to check again whether there's anything in the queue
-		// because the loop remains alive on any one of three conditions.
-		// If there's something in the queue, process it.
-		//
-		// Note: Important not to block on the take() method
-		// if there's nothing in the queue -- both
-		// 'writing' threads may have just terminated: deadlock could result.
-		if (AccountBQ.bankQueue.peek() != null) {
-		    Integer amt = AccountBQ.bankQueue.take(); // take() blocks
-		    AccountBQ.balance += amt;
+	List<AccountBQ.Request> batch = new ArrayList<AccountBQ.Request>(maxBatch);
+	int open = customers;  // customers who might still post a request
+	try {
+	    while (open > 0) {
+		batch.add(next());  // block until there's a request
+		AccountBQ.bankQueue.drainTo(batch, maxBatch - batch.size()); // and take the rest
+		if (lingerNanos > 0)
+		    linger(batch);
+
+		if (journal != null) {
+		    for (AccountBQ.Request r : batch)
+			if (!r.isEndOfStream())
+			    journal.append(0, r.amount);  // one account: number 0
+		    journal.commit();
+		}
+		for (AccountBQ.Request r : batch) {
+		    if (r.isEndOfStream())
+			open--;
+		    else
+			AccountBQ.balance += r.amount;
 		}
+		batch.clear();
+		batches++;
 	    }
-	    catch(InterruptedException e) { System.err.println(e); }
 	}
+	catch(InterruptedException e) { System.err.println(e); }
+	if (journal != null)
+	    journal.force();  // whatever the window, everything is durable once the Banker exits
+	cpuNanos = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
 	System.out.println("Banker exiting");
     }
+
+    // The next request, blocking until there is one. With records still unforced in the
+    // journal, though, wait no longer than the commit window allows, and then force them:
+    // otherwise, an idle Banker would leave them at risk for as long as it sat in take().
+    private AccountBQ.Request next() throws InterruptedException {
+	while (true) {
+	    long due = (journal == null) ? -1 : journal.nanosUntilDue();
+	    if (due < 0)
+		return AccountBQ.bankQueue.take();
+	    AccountBQ.Request r = AccountBQ.bankQueue.poll(due, TimeUnit.NANOSECONDS);
+	    if (r != null)
+		return r;
+	    journal.commit();  // the window ran out with no more requests: force the tail
+	}
+    }
+
+    // Wait up to lingerNanos, all told, for the batch to fill up.
+    private void linger(List<AccountBQ.Request> batch) throws InterruptedException {
+	long deadline = System.nanoTime() + lingerNanos;
+	while (batch.size() < maxBatch) {
+	    long left = deadline - System.nanoTime();
+	    AccountBQ.Request r = (left > 0) ? AccountBQ.bankQueue.poll(left, TimeUnit.NANOSECONDS) : null;
+	    if (r == null)
+		return;
+	    batch.add(r);
+	    AccountBQ.bankQueue.drainTo(batch, maxBatch - batch.size());
+	}
+    }
+
+    // For reports, after a join() on the Banker.
+    long getBatches()  { return batches; }
+    long getCpuNanos() { return cpuNanos; }
 }
 
 public class AccountBQ {
@@ -126,9 +200,37 @@ public class AccountBQ {
     private static final int queueCapacity = 1024; 
     private static final boolean promoteFairnessInQueueAccess = true; // no guarantees, though
 
+    // The Banker's defaults: up to 64 requests per wakeup, handled as soon as they're there.
+    public static final int maxBatch = 64;
+    public static final long lingerMicros = 0;
+
+    // A request for the Banker: a deposit (+1) or a withdrawal (-1), or else a customer's
+    // end-of-stream marker. The marker says so with a flag of its own, rather than with a
+    // special amount or a special boxed Integer, so no real request can be mistaken for it.
+    public static final class Request {
+	final int amount;
+	private final boolean endOfStream;
+
+	public Request(int amount) {
+	    this(amount, false);
+	}
+
+	private Request(int amount, boolean endOfStream) {
+	    this.amount = amount;
+	    this.endOfStream = endOfStream;
+	}
+
+	public boolean isEndOfStream() {
+	    return endOfStream;
+	}
+    }
+
+    // A customer's last request.
+    public static final Request endOfStream = new Request(0, true);
+
     // 2nd ctor argument promotes 'fairness' between producing and consuming threads
-    public static BlockingQueue<Integer> bankQueue = 
-	new ArrayBlockingQueue<Integer>(queueCapacity, promoteFairnessInQueueAccess); 
+    public static BlockingQueue<Request> bankQueue = 
+	new ArrayBlockingQueue<Request>(queueCapacity, promoteFairnessInQueueAccess); 
 }
 
 /** Review and research question on synchronization:
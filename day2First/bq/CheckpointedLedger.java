@@ -0,0 +1,301 @@
+package bq;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A Banker's balances, made durable by a Journal plus periodic snapshots ('checkpoints'),
+ * so that recovery after a restart takes time in proportion to the work done since the
+ * last snapshot, not to the whole history.
+ *
+ * The Banker thread alone calls apply(), once per request, and commit(), once per batch:
+ * each request is journaled, then applied. Every 'checkpointEvery' requests, the ledger
+ * writes a snapshot of all the balances as of that request's sequence number -- in the
+ * background, without stopping the Banker, by copy-on-write:
+ *
+ *  -- The balances are divided into pages of 1,024 accounts. Starting a checkpoint only
+ *     bumps an epoch number: no copying yet.
+ *  -- A background writer copies the pages, one by one, into a snapshot image, and then
+ *     writes the image to a file.
+ *  -- Meanwhile, before the Banker changes a balance on a page that the writer hasn't yet
+ *     copied, it copies that page itself. Either way, each page is copied exactly once,
+ *     before its first change after the checkpoint's sequence number; so the image holds
+ *     the balances exactly as of that number. A compareAndSet on the page's state decides
+ *     who copies it; the loser waits for the copy, at most a microsecond or so.
+ *
+ * A snapshot file is written under a temporary name, flushed, and then renamed, so a crash
+ * leaves either the whole snapshot or none. The ledger keeps the two latest snapshots and
+ * deletes the journal segments that the older of the two makes unnecessary.
+ *
+ * Recovery loads the latest good snapshot, then replays the journal records after its
+ * sequence number: the journal's tail.
+ */
+public class CheckpointedLedger implements AutoCloseable {
+    private static final int pageShift = 10;
+    private static final int pageSize = 1 << pageShift;     // accounts per page
+    private static final long magic = 0x4C45444745520001L;  // 'LEDGER', format 1
+    private static final String prefix = "snapshot-";
+    private static final String suffix = ".bin";
+
+    private final File dir;
+    private final int accounts;
+    private final long checkpointEvery;   // in requests; 0: never
+    private final Journal journal;
+    private final long[ ] balances;       // the Banker's
+    private final long[ ] image;          // the snapshot being taken
+    private final AtomicIntegerArray pageEpochs; // the epoch for which the page was copied; -epoch: being copied
+    private int epoch = 0;                // the latest checkpoint's number: Banker only
+    private volatile boolean copying = false; // pages still to copy for this epoch?
+    private volatile boolean writing = false; // a checkpoint still in progress?
+    private Thread writer = null;         // the latest checkpoint's writer
+    private long sinceCheckpoint = 0;
+
+    // How recovery went, for reports.
+    private final long snapshotSequence;
+    private final long replayed;
+    private final long recoveryNanos;
+
+    public CheckpointedLedger(File dir, int accounts, long checkpointEvery,
+			      int segmentBytes, long commitWindowNanos) throws IOException {
+	if (accounts < 1 || checkpointEvery < 0)
+	    throw new IllegalArgumentException("need accounts >= 1 and checkpointEvery >= 0");
+	long start = System.nanoTime();
+	this.dir = dir;
+	this.accounts = accounts;
+	this.checkpointEvery = checkpointEvery;
+	this.balances = new long[accounts];
+	this.image = new long[accounts];
+	this.pageEpochs = new AtomicIntegerArray((accounts + pageSize - 1) >>> pageShift);
+
+	if (!dir.isDirectory() && !dir.mkdirs())
+	    throw new IOException("can't create " + dir);
+	final long from = loadLatestSnapshot();
+	final long[ ] count = new long[1];
+	journal = new Journal(dir, segmentBytes, commitWindowNanos, new Journal.Replayer() {
+		@Override
+		public void replay(long sequence, int account, int amount) {
+		    if (sequence > from) {  // older records are already in the snapshot
+			balances[account] += amount;
+			count[0]++;
+		    }
+		}
+	    });
+	if (journal.lastSequence() < from)
+	    throw new IOException("journal ends at " + journal.lastSequence() +
+				  ", before the snapshot at " + from);
+	snapshotSequence = from;
+	replayed = count[0];
+	recoveryNanos = System.nanoTime() - start;
+    }
+
+    // Banker only: journal the request, then apply it. Returns its sequence number.
+    public long apply(int account, int amount) {
+	if (account < 0 || account >= accounts)
+	    throw new IllegalArgumentException("no such account: " + account);
+	long seq = journal.append(account, amount);
+	if (copying)
+	    copyPage(account >>> pageShift, epoch);  // copy-on-write, if the writer hasn't yet
+	balances[account] += amount;
+	if (checkpointEvery > 0 && ++sinceCheckpoint >= checkpointEvery && checkpoint())
+	    sinceCheckpoint = 0;
+	return seq;
+    }
+
+    // Banker only, once per batch: see Journal.commit().
+    public void commit() {
+	journal.commit();
+    }
+
+    // Banker only.
+    public long balance(int account) {
+	return balances[account];
+    }
+
+    // Banker only: a copy of every balance.
+    public long[ ] balances() {
+	return balances.clone();
+    }
+
+    // Banker only: start a checkpoint as of the latest request, unless one is still in
+    // progress. Returns true if it started one.
+    public boolean checkpoint() {
+	if (writing)
+	    return false;
+	journal.force();  // the snapshot mustn't get ahead of the durable journal
+	final long seq = journal.lastSequence();
+	final int e = ++epoch;
+	writing = true;
+	copying = true;   // from here on, apply() copies pages before changing them
+	writer = new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    try {
+			for (int p = 0; p < pageEpochs.length(); p++)
+			    copyPage(p, e);
+			copying = false;
+			writeSnapshot(seq);
+		    }
+		    catch(IOException ex) { System.err.println("checkpoint failed: " + ex); }
+		    finally { writing = false; }
+		}
+	    }, "checkpoint-" + seq);
+	writer.setDaemon(true);
+	writer.start();
+	return true;
+    }
+
+    public long getSequence()         { return journal.lastSequence(); }
+    public long getSnapshotSequence() { return snapshotSequence; }  // at recovery: 0 if none
+    public long getReplayedCount()    { return replayed; }
+    public long getRecoveryNanos()    { return recoveryNanos; }
+
+    // Wait for any checkpoint in progress, then make the journal durable. An interrupt
+    // doesn't cut the wait short -- the snapshot must be finished -- but the interrupt
+    // status is restored on the way out.
+    @Override
+    public void close() {
+	boolean interrupted = false;
+	while (writer != null && writer.isAlive()) {
+	    try {
+		writer.join();
+	    }
+	    catch(InterruptedException e) { interrupted = true; }
+	}
+	journal.close();
+	if (interrupted)
+	    Thread.currentThread().interrupt();
+    }
+
+    // Copy one page into the image for the given epoch, unless it's been copied already.
+    private void copyPage(int page, int e) {
+	while (true) {
+	    int state = pageEpochs.get(page);
+	    if (state == e)
+		return;                   // done
+	    if (state == -e) {
+		Thread.yield();           // the other thread is copying it right now
+		continue;
+	    }
+	    if (pageEpochs.compareAndSet(page, state, -e)) {
+		int from = page << pageShift;
+		System.arraycopy(balances, from, image, from, Math.min(pageSize, accounts - from));
+		pageEpochs.set(page, e);
+		return;
+	    }
+	}
+    }
+
+    // The format: magic, sequence, accounts, the balances, and a check of all the above.
+    private void writeSnapshot(long seq) throws IOException {
+	File tmp = new File(dir, prefix + seq + ".tmp");
+	ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+	long check = mix(mix(magic, seq), accounts);
+	try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+	    FileChannel ch = raf.getChannel();
+	    ch.truncate(0);
+	    buf.putLong(magic).putLong(seq).putInt(accounts);
+	    for (long b : image) {
+		if (buf.remaining() < 8)
+		    drain(ch, buf);
+		buf.putLong(b);
+		check = mix(check, b);
+	    }
+	    if (buf.remaining() < 8)
+		drain(ch, buf);
+	    buf.putLong(check);
+	    drain(ch, buf);
+	    ch.force(true);
+	}
+	Files.move(tmp.toPath(), snapshotFile(seq).toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+	// Keep the two newest snapshots; the journal need only reach back to the older one.
+	File[ ] snapshots = snapshots();
+	for (int i = 0; i < snapshots.length - 2; i++)
+	    snapshots[i].delete();
+	if (snapshots.length >= 2)
+	    journal.deleteThrough(sequenceOf(snapshots[snapshots.length - 2]));
+    }
+
+    // Load the newest snapshot that passes its check; return its sequence number, or 0.
+    private long loadLatestSnapshot() throws IOException {
+	File[ ] snapshots = snapshots();
+	for (int i = snapshots.length - 1; i >= 0; i--) {
+	    long seq = readSnapshot(snapshots[i]);
+	    if (seq >= 0)
+		return seq;
+	    System.err.println("skipping bad snapshot " + snapshots[i]);
+	}
+	Arrays.fill(balances, 0);
+	return 0;
+    }
+
+    private long readSnapshot(File f) throws IOException {
+	try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+	    FileChannel ch = raf.getChannel();
+	    if (ch.size() != 8 + 8 + 4 + 8L * accounts + 8)
+		return -1;
+	    ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+	    buf.flip();  // empty, ready for fill()
+	    fill(ch, buf, 20);
+	    long m = buf.getLong(), seq = buf.getLong();
+	    int n = buf.getInt();
+	    if (m != magic || n != accounts)
+		return -1;
+	    long check = mix(mix(magic, seq), accounts);
+	    for (int i = 0; i < accounts; i++) {
+		if (buf.remaining() < 8)
+		    fill(ch, buf, 8);
+		balances[i] = buf.getLong();
+		check = mix(check, balances[i]);
+	    }
+	    if (buf.remaining() < 8)
+		fill(ch, buf, 8);
+	    return (buf.getLong() == check) ? seq : -1;
+	}
+    }
+
+    private static void drain(FileChannel ch, ByteBuffer buf) throws IOException {
+	buf.flip();
+	while (buf.hasRemaining())
+	    ch.write(buf);
+	buf.clear();
+    }
+
+    // Read until the buffer holds at least 'need' bytes, and leave it ready for gets.
+    private static void fill(FileChannel ch, ByteBuffer buf, int need) throws IOException {
+	buf.compact();
+	while (buf.position() < need)
+	    if (ch.read(buf) < 0)
+		throw new IOException("snapshot ends early");
+	buf.flip();
+    }
+
+    private File[ ] snapshots() {
+	File[ ] files = dir.listFiles((d, name) -> name.startsWith(prefix) && name.endsWith(suffix));
+	if (files == null)
+	    return new File[0];
+	Arrays.sort(files);  // zero-padded sequence numbers: oldest first
+	return files;
+    }
+
+    private File snapshotFile(long seq) {
+	return new File(dir, String.format("%s%020d%s", prefix, seq, suffix));
+    }
+
+    private static long sequenceOf(File f) {
+	String name = f.getName();
+	return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    private static long mix(long h, long v) {
+	h = (h ^ v) * 0x9E3779B97F4A7C15L;
+	return h ^ (h >>> 29);
+    }
+}
@@ -0,0 +1,300 @@
+package bq;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A write-ahead journal for the Banker: every deposit and withdrawal is appended, as a
+ * fixed-size binary record, to a memory-mapped file before it's applied to a balance; on
+ * restart, replaying the journal rebuilds the balances.
+ *
+ * Each record is 24 bytes:
+ *
+ *    [ sequence: 8 ][ account: 4 ][ amount: 4 ][ check: 4 ][ unused: 4 ]
+ *
+ * Sequence numbers start at 1 and go up by 1; the check is a hash of the other three
+ * fields. Replay stops at the first record that's out of sequence or fails its check --
+ * the end of the journal, or a record torn by a crash.
+ *
+ * Appending is a few stores into the mapped buffer: no system call. Durability comes from
+ * force(), which writes the buffer's dirty pages to the disk and waits -- milliseconds,
+ * rather than the nanoseconds an append takes. Forcing after every request would bound
+ * the Banker's throughput by the disk. Instead, commit() forces once for a whole group
+ * of records ('group commit'): once per batch the Banker drains from its queue, if the
+ * commit window is 0, or else at most once per window. Records appended since the last
+ * force can be lost in a crash.
+ *
+ * The window bounds that loss only if somebody calls commit() once it has run out. A Banker
+ * that goes idle with records still unforced would otherwise leave them so for as long as
+ * it sits in take(). Hence nanosUntilDue(): the appender waits for more work no longer than
+ * that, with a timed poll(), and then calls commit() for the tail. (The Banker in AccountBQ
+ * does just this.) A crash can then take with it at most a window's worth of records.
+ *
+ * The journal is a series of segment files of a fixed size, each named for the sequence
+ * number of its first record:
+ *
+ *    00000000000000000001.journal   00000000000000699051.journal   ...
+ *
+ * A full segment is forced and left behind, and appending goes on in the next. Each segment
+ * is preallocated -- written out in full, with zeros, before it's mapped -- so that appends
+ * never wait on the file system to find blocks; a background thread prepares the next
+ * segment while the current one fills.
+ *
+ * One thread, the Banker, appends. (Java 8 can't unmap a MappedByteBuffer explicitly;
+ * a finished segment's mapping goes away when the buffer is garbage-collected.)
+ */
+public class Journal implements AutoCloseable {
+    public interface Replayer {
+	void replay(long sequence, int account, int amount);
+    }
+
+    public static final int recordSize = 24;
+    public static final int defaultSegmentBytes = 16 << 20;  // 16 MB: about 700,000 records
+    private static final String suffix = ".journal";
+
+    private final File dir;
+    private final int segmentRecords;         // records per segment
+    private final long commitWindowNanos;     // 0: force at every commit()
+
+    private MappedByteBuffer segment;         // the current segment
+    private long segmentFirst;                // sequence number of its first record
+    private int position;                     // byte offset of the next record
+    private long nextSequence;
+    private long lastForce = System.nanoTime();
+    private boolean dirty = false;
+    private long forces = 0;
+    private Thread preallocator = null;       // preparing the segment after the current one
+
+    // Open the journal in the given directory, creating it if need be. Any records already
+    // there are first passed, in order, to the replayer (if it isn't null).
+    public Journal(File dir, int segmentBytes, long commitWindowNanos, Replayer replayer) throws IOException {
+	if (segmentBytes < recordSize || commitWindowNanos < 0)
+	    throw new IllegalArgumentException("need segmentBytes >= recordSize and commitWindowNanos >= 0");
+	if (!dir.isDirectory() && !dir.mkdirs())
+	    throw new IOException("can't create " + dir);
+	this.dir = dir;
+	this.segmentRecords = segmentBytes / recordSize;
+	this.commitWindowNanos = commitWindowNanos;
+	recover(replayer);
+    }
+
+    // Append a record; returns its sequence number. It's durable after the next force.
+    public long append(int account, int amount) {
+	if (position == segmentRecords * recordSize)
+	    roll();
+	long seq = nextSequence++;
+	segment.putLong(position, seq);
+	segment.putInt(position + 8, account);
+	segment.putInt(position + 12, amount);
+	segment.putInt(position + 16, check(seq, account, amount));
+	position += recordSize;
+	dirty = true;
+	return seq;
+    }
+
+    // The group-commit point, once per batch: force if the commit window has run out.
+    // Returns true if it forced. Forces only when called: see nanosUntilDue().
+    public boolean commit() {
+	if (!dirty || System.nanoTime() - lastForce < commitWindowNanos)
+	    return false;
+	force();
+	return true;
+    }
+
+    // For an appender about to wait for more work: how long until commit() would force,
+    // so that it waits no longer than that. -1: nothing to force; 0: commit() is due now.
+    public long nanosUntilDue() {
+	if (!dirty)
+	    return -1;
+	return Math.max(0, commitWindowNanos - (System.nanoTime() - lastForce));
+    }
+
+    // Force, regardless of the window.
+    public void force() {
+	if (dirty) {
+	    segment.force();
+	    forces++;
+	    dirty = false;
+	}
+	lastForce = System.nanoTime();
+    }
+
+    public long lastSequence() {
+	return nextSequence - 1;
+    }
+
+    public long getForceCount() {
+	return forces;
+    }
+
+    // Delete the segments whose records all have sequence numbers up to and including seq,
+    // once a snapshot makes them unnecessary. Safe to call from a thread other than the
+    // appender: the segment being appended to always holds records beyond seq.
+    public void deleteThrough(long seq) {
+	for (File f : segments())
+	    if (firstSequence(f) + segmentRecords - 1 <= seq && !f.delete())
+		System.err.println("can't delete " + f);
+    }
+
+    @Override
+    public void close() {
+	force();
+	awaitPreallocator();
+    }
+
+    // Replay each segment in order, up to the first bad record; then append from there.
+    private void recover(Replayer replayer) throws IOException {
+	File[ ] files = segments();
+	nextSequence = 1;
+	segmentFirst = 1;
+	int current = -1;  // index into files of the segment to append to
+	for (int i = 0; i < files.length; i++) {
+	    long first = firstSequence(files[i]);
+	    if (i == 0)
+		nextSequence = first; // older segments may have been deleted
+	    else if (first != nextSequence)
+		break;               // a gap: nothing from here on is part of the journal
+	    MappedByteBuffer buf = map(files[i], false);
+	    int pos = 0;
+	    while (pos < segmentRecords * recordSize) {
+		long seq = buf.getLong(pos);
+		int account = buf.getInt(pos + 8);
+		int amount = buf.getInt(pos + 12);
+		if (seq != nextSequence || buf.getInt(pos + 16) != check(seq, account, amount))
+		    break;
+		if (replayer != null)
+		    replayer.replay(seq, account, amount);
+		nextSequence++;
+		pos += recordSize;
+	    }
+	    current = i;
+	    segmentFirst = first;
+	    segment = buf;
+	    position = pos;
+	    if (pos < segmentRecords * recordSize)
+		break;               // the end of the journal
+	}
+	// Anything after the end is left over from before a crash: it mustn't come back to
+	// life on a later replay, when sequence numbers reach it again.
+	for (int i = current + 1; i < files.length; i++)
+	    if (!files[i].delete())
+		throw new IOException("can't delete " + files[i]);
+	if (segment == null) {
+	    preallocate(segmentFile(1));
+	    segment = map(segmentFile(1), false);
+	    position = 0;
+	}
+	for (int pos = position; pos < segmentRecords * recordSize; pos += 8)
+	    segment.putLong(pos, 0L);
+	segment.force();
+	startPreallocator();
+    }
+
+    // The current segment is full: on to the next one.
+    private void roll() {
+	segment.force();
+	forces++;
+	lastForce = System.nanoTime();
+	dirty = false;
+	awaitPreallocator();
+	segmentFirst += segmentRecords;
+	try {
+	    File next = segmentFile(segmentFirst);
+	    segment = map(next, !next.exists());
+	}
+	catch(IOException e) { throw new UncheckedIOException(e); }
+	position = 0;
+	startPreallocator();
+    }
+
+    private void startPreallocator() {
+	final File next = segmentFile(segmentFirst + segmentRecords);
+	preallocator = new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    try {
+			preallocate(next);
+		    }
+		    catch(IOException e) { System.err.println(e); } // roll() will try again
+		}
+	    }, "journal-preallocator");
+	preallocator.setDaemon(true);
+	preallocator.start();
+    }
+
+    private void awaitPreallocator() {
+	if (preallocator == null)
+	    return;
+	boolean interrupted = false;
+	while (true) {
+	    try {
+		preallocator.join();
+		break;
+	    }
+	    catch(InterruptedException e) { interrupted = true; }
+	}
+	if (interrupted)
+	    Thread.currentThread().interrupt();
+	preallocator = null;
+    }
+
+    // Write the whole file out with zeros, then flush it to the disk.
+    private void preallocate(File f) throws IOException {
+	byte[ ] zeros = new byte[64 * 1024];
+	long size = (long) segmentRecords * recordSize;
+	try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+	    raf.setLength(0);
+	    for (long written = 0; written < size; written += zeros.length)
+		raf.write(zeros, 0, (int) Math.min(zeros.length, size - written));
+	    raf.getFD().sync();
+	}
+    }
+
+    private MappedByteBuffer map(File f, boolean preallocateFirst) throws IOException {
+	if (preallocateFirst)
+	    preallocate(f);
+	try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+	    long size = (long) segmentRecords * recordSize;
+	    if (raf.length() < size)
+		raf.setLength(size);  // a segment from a run with a smaller segment size
+	    return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+    }
+
+    private File[ ] segments() {
+	File[ ] files = dir.listFiles((d, name) -> name.endsWith(suffix) && firstSequence(name) > 0);
+	if (files == null)
+	    return new File[0];
+	Arrays.sort(files);  // the names are zero-padded: alphabetical order is numeric order
+	return files;
+    }
+
+    private File segmentFile(long firstSequence) {
+	return new File(dir, String.format("%020d%s", firstSequence, suffix));
+    }
+
+    private static long firstSequence(File f) {
+	return firstSequence(f.getName());
+    }
+
+    private static long firstSequence(String name) {
+	try {
+	    return Long.parseLong(name.substring(0, name.length() - suffix.length()));
+	}
+	catch(NumberFormatException e) { return -1; }
+    }
+
+    // Never 0 for a real record, so that a zeroed-out slot can't pass.
+    private static int check(long seq, int account, int amount) {
+	long h = seq * 0x9E3779B97F4A7C15L + (((long) account << 32) | (amount & 0xFFFFFFFFL));
+	h ^= h >>> 33;
+	h *= 0xFF51AFD7ED558CCDL;
+	h ^= h >>> 33;
+	return (int) h | 1;
+    }
+}
@@ -0,0 +1,71 @@
+package bq;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Journal throughput for a range of commit windows, and the time to replay the journal.
+ *
+ * For each window, the program appends the given number of records in batches, as the
+ * Banker would, calling commit() after each batch; then it reopens the journal, as on a
+ * restart, and checks that replay rebuilds the same balances. Records go into a fresh
+ * directory under java.io.tmpdir, removed at the end.
+ *
+ * Sample usage (the arguments are optional):
+ *
+ *    java bq.JournalBench [records] [batch size] [accounts]
+ *
+ * Window 0 forces once per batch. The larger the window, the fewer the forces and the
+ * higher the throughput -- and the more records a crash can take with it.
+ */
+public class JournalBench {
+    public static void main(String[ ] args) throws Exception {
+	int records  = (args.length > 0) ? Integer.parseInt(args[0]) : 2_000_000;
+	int batch    = (args.length > 1) ? Integer.parseInt(args[1]) : 64;
+	final int accounts = (args.length > 2) ? Integer.parseInt(args[2]) : 1024;
+	long[ ] windowsMicros = { 0, 100, 1_000, 10_000, 100_000 };
+
+	System.out.printf("%d records in batches of %d%n", records, batch);
+	System.out.printf("%12s %14s %10s %16s%n", "window (us)", "records/s", "forces", "replay (ms)");
+	for (long window : windowsMicros) {
+	    File dir = new File(System.getProperty("java.io.tmpdir"), "journalbench-" + System.nanoTime());
+	    long[ ] balances = new long[accounts];
+	    Random rand = new Random(42);
+
+	    Journal journal = new Journal(dir, Journal.defaultSegmentBytes, window * 1_000L, null);
+	    long start = System.nanoTime();
+	    for (int i = 0; i < records; ) {
+		for (int b = 0; b < batch && i < records; b++, i++) {
+		    int account = rand.nextInt(accounts);
+		    int amount = rand.nextInt(201) - 100;
+		    journal.append(account, amount);
+		    balances[account] += amount;
+		}
+		journal.commit();
+	    }
+	    journal.close();
+	    long elapsed = System.nanoTime() - start;
+
+	    final long[ ] replayed = new long[accounts];
+	    long replayStart = System.nanoTime();
+	    Journal reopened = new Journal(dir, Journal.defaultSegmentBytes, 0, new Journal.Replayer() {
+		    @Override
+		    public void replay(long sequence, int account, int amount) {
+			replayed[account] += amount;
+		    }
+		});
+	    long replayTime = System.nanoTime() - replayStart;
+	    reopened.close();
+	    if (reopened.lastSequence() != records || !java.util.Arrays.equals(balances, replayed))
+		throw new IllegalStateException("replay didn't rebuild the balances");
+
+	    System.out.printf("%12d %14.0f %10d %16.1f%n", window, records / (elapsed / 1e9),
+			      journal.getForceCount(), replayTime / 1e6);
+	    File[ ] files = dir.listFiles();
+	    if (files != null)
+		for (File f : files)
+		    f.delete();
+	    dir.delete();
+	}
+    }
+}
@@ -0,0 +1,79 @@
+package bq;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Throughput of a ShardedLedger as the number of Bankers (K) grows, for a range of account
+ * counts and producer counts. Each producer thread posts random deposits and withdrawals
+ * to random accounts, as fast as it can; the clock stops when every request has been
+ * applied. The final balances are checked against the producers' own tallies.
+ *
+ * Sample usage (the argument is optional):
+ *
+ *    java bq.LedgerBench [requests per producer]
+ *
+ * K = 1 is AccountBQ's design: one Banker for everything. Gains from larger K need more
+ * cores than Bankers plus producers; on a small machine, the extra threads only take turns.
+ */
+public class LedgerBench {
+    public static void main(String[ ] args) throws Exception {
+	int requests = (args.length > 0) ? Integer.parseInt(args[0]) : 200_000;
+	int[ ] bankerCounts   = { 1, 2, 4, 8 };
+	int[ ] accountCounts  = { 16, 1024, 65536 };
+	int[ ] producerCounts = { 1, 4, 8 };
+
+	System.out.printf("%d requests per producer, %d processors%n",
+			  requests, Runtime.getRuntime().availableProcessors());
+	System.out.printf("%8s %9s %10s %14s%n", "bankers", "accounts", "producers", "requests/s");
+	runOnce(1, 1024, 1, requests); // warm-up
+	for (int accounts : accountCounts)
+	    for (int producers : producerCounts)
+		for (int k : bankerCounts) {
+		    double rate = runOnce(k, accounts, producers, requests);
+		    System.out.printf("%8d %9d %10d %14.0f%n", k, accounts, producers, rate);
+		}
+    }
+
+    // Returns requests per second.
+    private static double runOnce(int bankers, final int accounts, int producers,
+				  final int requests) throws Exception {
+	final ShardedLedger ledger = new ShardedLedger(accounts, bankers);
+	final long[ ][ ] tallies = new long[producers][ ];
+	Thread[ ] threads = new Thread[producers];
+
+	long start = System.nanoTime();
+	for (int p = 0; p < producers; p++) {
+	    final long[ ] tally = tallies[p] = new long[accounts];
+	    threads[p] = new Thread(new Runnable() {
+		    @Override
+		    public void run() {
+			ThreadLocalRandom rand = ThreadLocalRandom.current();
+			try {
+			    for (int i = 0; i < requests; i++) {
+				int account = rand.nextInt(accounts);
+				long amount = rand.nextInt(-100, 101);
+				ledger.deposit(account, amount);
+				tally[account] += amount;
+			    }
+			}
+			catch(InterruptedException e) { System.err.println(e); }
+		    }
+		});
+	    threads[p].start();
+	}
+	for (Thread t : threads)
+	    t.join();
+	long[ ] balances = ledger.balances();  // queued behind every request: all applied
+	long elapsed = System.nanoTime() - start;
+	ledger.close();
+
+	for (int a = 0; a < accounts; a++) {
+	    long expected = 0;
+	    for (long[ ] tally : tallies)
+		expected += tally[a];
+	    if (balances[a] != expected)
+		throw new IllegalStateException("account " + a + ": " + balances[a] + " != " + expected);
+	}
+	return (double) producers * requests / (elapsed / 1e9);
+    }
+}
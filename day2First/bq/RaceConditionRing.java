@@ -0,0 +1,139 @@
+package bq;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+/**
+   Miser/Spendthrift 5: RaceConditionBQ with a RequestRing in place of the
+   ArrayBlockingQueue<AccountBQ.Request>. Each request is a primitive long that encodes the
+   account and the amount; nothing is allocated, nothing is locked, and a full ring makes
+   the customers wait rather than throw an exception.
+
+   The customers and the Banker work as before, except that there can be several
+   accounts: each customer picks one at random for each request. The customers end
+   with an end-of-stream request, which the Banker counts, as in AccountBQ.
+
+   Usage (the optional arguments set the accounts, the ring's capacity, and the
+   customers' sleeps: up to that many ms between requests, 0 for none):
+
+      java bq.RaceConditionRing <times to iterate> [accounts] [capacity] [max sleep]
+
+   With no sleeps, the customers flood the ring, and the program reports how fast the
+   Banker keeps up and how many bytes the customers allocate per request: none.
+ */
+
+class RingCustomer extends Thread {
+    private final RequestRing ring;
+    private final int howMany;
+    private final int amount;    // +1: a Miser, -1: a Spendthrift
+    private final int accounts;
+    private final int maxSleep;
+    private final Random rand = new Random();
+    long allocatedBytes = -1;    // during the requests, if the JVM can tell
+
+    RingCustomer(String name, RequestRing ring, int howMany, int amount, int accounts, int maxSleep) {
+	super(name);
+	this.ring = ring;
+	this.howMany = howMany;
+	this.amount = amount;
+	this.accounts = accounts;
+	this.maxSleep = maxSleep;
+    }
+
+    @Override
+    public void run() {
+	long before = allocatedBytes();
+	try {
+	    for (int i = 0; i < howMany; i++) {
+		ring.put(rand.nextInt(accounts), amount); // waits if the ring is full
+		if (maxSleep > 0)
+		    Thread.sleep(rand.nextInt(maxSleep));
+	    }
+	    allocatedBytes = (before < 0) ? -1 : allocatedBytes() - before;
+	    ring.putEndOfStream();
+	}
+	catch(InterruptedException e) { System.err.println(e); }
+	System.out.println(getName() + " exiting");
+    }
+
+    // com.sun.management's ThreadMXBean can count a thread's allocations; others can't.
+    private static long allocatedBytes() {
+	ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+	if (mx instanceof com.sun.management.ThreadMXBean)
+	    return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+	return -1;
+    }
+}
+
+class RingBanker extends Thread implements RequestRing.Handler {
+    private static final int maxBatch = 256;
+    private final RequestRing ring;
+    private final long[ ] balances;   // the Banker's alone: no locks
+    private int open;                 // customers who might still post a request
+
+    RingBanker(RequestRing ring, int customers, int accounts) {
+	this.ring = ring;
+	this.open = customers;
+	this.balances = new long[accounts];
+    }
+
+    @Override
+    public void run() {
+	try {
+	    while (open > 0)
+		ring.take(this, maxBatch);  // blocks while the ring is empty
+	}
+	catch(InterruptedException e) { System.err.println(e); }
+	System.out.println("Banker exiting");
+    }
+
+    @Override
+    public void onRequest(int account, int amount) {
+	if (account == RequestRing.endOfStream)
+	    open--;
+	else
+	    balances[account] += amount;
+    }
+
+    long total() {  // after a join()
+	long sum = 0;
+	for (long b : balances)
+	    sum += b;
+	return sum;
+    }
+}
+
+public class RaceConditionRing {
+    public static void main(String[ ] args) throws InterruptedException {
+	if (args.length < 1) {
+	    System.err.println("RaceConditionRing <times to iterate> [accounts] [capacity] [max sleep]");
+	    return;
+	}
+	int n        = Integer.parseInt(args[0]);
+	int accounts = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+	int capacity = (args.length > 2) ? Integer.parseInt(args[2]) : 1024;
+	int maxSleep = (args.length > 3) ? Integer.parseInt(args[3]) : AccountBQ.zsCount;
+
+	RequestRing ring = new RequestRing(capacity);
+	RingCustomer miser = new RingCustomer("Miser", ring, n, +1, accounts, maxSleep);
+	RingCustomer spendthrift = new RingCustomer("Spendthrift", ring, n, -1, accounts, maxSleep);
+	RingBanker banker = new RingBanker(ring, 2, accounts);
+
+	long start = System.nanoTime();
+	banker.start();
+	miser.start();
+	spendthrift.start();
+	banker.join();
+	miser.join();
+	spendthrift.join();
+	double seconds = (System.nanoTime() - start) / 1e9;
+
+	System.out.println("Final balance: " + banker.total());
+	System.out.printf("%.0f requests/s", 2 * n / seconds);
+	if (miser.allocatedBytes >= 0)
+	    System.out.printf(", customers allocated %.2f bytes per request",
+			      (miser.allocatedBytes + spendthrift.allocatedBytes) / (2.0 * n));
+	System.out.println();
+    }
+}
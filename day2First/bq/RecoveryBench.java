@@ -0,0 +1,69 @@
+package bq;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Restart time with and without checkpoints, as the history grows.
+ *
+ * For each history length, the program runs a CheckpointedLedger through that many random
+ * requests, closes it, and then times the recovery of a fresh ledger from the same
+ * directory. Without checkpoints, recovery replays the whole journal, and its time grows
+ * with the history; with a checkpoint every 'interval' requests, it loads one snapshot and
+ * replays at most a segment or two of journal, whatever the history. The recovered balances
+ * are checked against the originals. The directories go under java.io.tmpdir, and are
+ * removed at the end.
+ *
+ * Sample usage (the arguments are optional):
+ *
+ *    java bq.RecoveryBench [accounts] [checkpoint interval]
+ *
+ * The 'apply' column is the Banker's rate, checkpoints included: it doesn't stop for them.
+ */
+public class RecoveryBench {
+    public static void main(String[ ] args) throws Exception {
+	int accounts = (args.length > 0) ? Integer.parseInt(args[0]) : 100_000;
+	long interval = (args.length > 1) ? Long.parseLong(args[1]) : 500_000;
+	long[ ] histories = { 1_250_000, 4_250_000, 16_250_000 };
+
+	System.out.printf("%d accounts, a checkpoint every %d requests%n", accounts, interval);
+	System.out.printf("%10s %12s %12s %12s %12s %14s%n", "history", "checkpoints",
+			  "apply (M/s)", "snapshot at", "replayed", "recovery (ms)");
+	for (long history : histories)
+	    for (long every : new long[ ] { 0, interval })
+		runOnce(accounts, history, every);
+    }
+
+    private static void runOnce(int accounts, long history, long every) throws Exception {
+	File dir = new File(System.getProperty("java.io.tmpdir"), "recoverybench-" + System.nanoTime());
+	Random rand = new Random(7);
+
+	CheckpointedLedger ledger = new CheckpointedLedger(dir, accounts, every,
+							   Journal.defaultSegmentBytes, 1_000_000L);
+	long start = System.nanoTime();
+	for (long i = 0; i < history; i++) {
+	    ledger.apply(rand.nextInt(accounts), rand.nextInt(201) - 100);
+	    if ((i & 63) == 63)
+		ledger.commit();  // as if in batches of 64
+	}
+	double applyRate = history / ((System.nanoTime() - start) / 1e9) / 1e6;
+	long[ ] expected = ledger.balances();
+	ledger.close();
+
+	CheckpointedLedger recovered = new CheckpointedLedger(dir, accounts, every,
+							      Journal.defaultSegmentBytes, 1_000_000L);
+	if (!java.util.Arrays.equals(expected, recovered.balances()))
+	    throw new IllegalStateException("recovery didn't rebuild the balances");
+	System.out.printf("%10d %12s %12.2f %12d %12d %14.1f%n", history,
+			  (every == 0) ? "none" : "every " + every, applyRate,
+			  recovered.getSnapshotSequence(), recovered.getReplayedCount(),
+			  recovered.getRecoveryNanos() / 1e6);
+	recovered.close();
+
+	File[ ] files = dir.listFiles();
+	if (files != null)
+	    for (File f : files)
+		f.delete();
+	dir.delete();
+    }
+}
@@ -0,0 +1,213 @@
+package bq;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded queue of deposit and withdrawal requests for any number of producers (the
+ * customers) and exactly one consumer (the Banker), with neither locks nor allocation.
+ *
+ * AccountBQ's customers each wrap a request in an object and add it to an ArrayBlockingQueue:
+ * an allocation plus a lock per request, and add() throws an exception once the queue is
+ * full. Here, a request is a primitive long, the account number in the high 32 bits and
+ * the amount in the low 32, stored in a preallocated long[ ]:
+ *
+ *    63            32 31             0
+ *    [   account    ][    amount     ]     account -1: end of stream
+ *
+ * As in tpool.RingJobQueue, a slot's sequence number says whose turn it is: producers claim
+ * positions with a compareAndSet on 'tail', and the consumer hands each slot back by moving
+ * its sequence on a lap. With a single consumer, 'head' needs no compareAndSet at all.
+ *
+ * A full ring pushes back on the producers instead of failing:
+ *
+ *  -- offer() tries once and says whether the request went in ('try-publish')
+ *  -- put() waits for room: it spins briefly, then yields, then parks for growing intervals
+ *
+ * The consumer removes requests in bulk with drain() or take(), which pass each one to
+ * a Handler as two ints: no object per request there either. take() blocks, parking the
+ * consumer once the ring has been empty for a while; the next producer to publish unparks it.
+ */
+public class RequestRing extends RequestRingPad2 {
+    // The consumer's callback, once per request.
+    public interface Handler {
+	void onRequest(int account, int amount);
+    }
+
+    public static final int endOfStream = -1;  // the account number of a customer's last request
+
+    private static final int spinRounds = 100;
+    private static final int yieldRounds = 10;
+    private static final long maxParkNanos = 1_000_000L;
+
+    private static final AtomicLongFieldUpdater<RequestRingTail> tailUpdater =
+	AtomicLongFieldUpdater.newUpdater(RequestRingTail.class, "tail");
+    private static final AtomicLongFieldUpdater<RequestRingHead> headUpdater =
+	AtomicLongFieldUpdater.newUpdater(RequestRingHead.class, "head");
+
+    private final int mask;                // capacity - 1, capacity a power of 2
+    private final long[ ] requests;        // published by the volatile write to the sequence
+    private final AtomicLongArray sequences;
+    private volatile Thread consumer = null;
+    private volatile boolean consumerParked = false;
+
+    // The capacity is rounded up to a power of 2.
+    public RequestRing(int capacity) {
+	if (capacity < 2 || capacity > (1 << 30))
+	    throw new IllegalArgumentException("capacity must be from 2 through 2^30");
+	int size = Integer.highestOneBit(capacity - 1) << 1;
+	mask = size - 1;
+	requests = new long[size];
+	sequences = new AtomicLongArray(size);
+	for (int i = 0; i < size; i++)
+	    sequences.set(i, i);
+    }
+
+    public int capacity() {
+	return mask + 1;
+    }
+
+    public static long encode(int account, int amount) {
+	return ((long) account << 32) | (amount & 0xFFFFFFFFL);
+    }
+
+    public static int account(long request) {
+	return (int) (request >>> 32);
+    }
+
+    public static int amount(long request) {
+	return (int) request;
+    }
+
+    // Try-publish: false, at once, if the ring is full.
+    public boolean offer(int account, int amount) {
+	if (account < 0)
+	    throw new IllegalArgumentException("account numbers are non-negative");
+	return publish(encode(account, amount));
+    }
+
+    // Publish, waiting for room if the ring is full.
+    public void put(int account, int amount) throws InterruptedException {
+	if (account < 0)
+	    throw new IllegalArgumentException("account numbers are non-negative");
+	putRequest(encode(account, amount));
+    }
+
+    // A producer's last request: see RingBanker.
+    public void putEndOfStream() throws InterruptedException {
+	putRequest(encode(endOfStream, 0));
+    }
+
+    // Consumer only: hand up to max waiting requests to the handler, without waiting.
+    // Returns how many were handled.
+    public int drain(Handler handler, int max) {
+	long pos = head;
+	int n = 0;
+	while (n < max) {
+	    int slot = (int) (pos & mask);
+	    if (sequences.get(slot) != pos + 1)
+		break;                                  // nothing published here yet
+	    long request = requests[slot];
+	    sequences.lazySet(slot, pos + mask + 1);    // hand the slot back to producers
+	    headUpdater.lazySet(this, ++pos);
+	    n++;
+	    handler.onRequest(account(request), amount(request));
+	}
+	return n;
+    }
+
+    // Consumer only: like drain(), but wait until there's at least one request.
+    public int take(Handler handler, int max) throws InterruptedException {
+	int n;
+	for (int round = 0; (n = drain(handler, max)) == 0; round++) {
+	    if (Thread.interrupted())
+		throw new InterruptedException();
+	    if (round < spinRounds)
+		continue;
+	    if (round < spinRounds + yieldRounds) {
+		Thread.yield();
+		continue;
+	    }
+	    consumer = Thread.currentThread();
+	    consumerParked = true;                      // then recheck: see publish()
+	    if (isEmpty())
+		LockSupport.park(this);
+	    consumerParked = false;
+	}
+	return n;
+    }
+
+    public int size() {
+	long n = tail - head;
+	return (n <= 0) ? 0 : (int) Math.min(n, capacity());
+    }
+
+    public boolean isEmpty() {
+	long pos = head;
+	return sequences.get((int) (pos & mask)) != pos + 1;
+    }
+
+    private void putRequest(long request) throws InterruptedException {
+	long parkNanos = 1_000L;
+	for (int round = 0; !publish(request); round++) {
+	    if (Thread.interrupted())
+		throw new InterruptedException();
+	    if (round < spinRounds)
+		continue;
+	    if (round < spinRounds + yieldRounds)
+		Thread.yield();
+	    else {
+		// The consumer doesn't unpark producers: a bounded nap instead.
+		LockSupport.parkNanos(this, parkNanos);
+		parkNanos = Math.min(parkNanos * 2, maxParkNanos);
+	    }
+	}
+    }
+
+    private boolean publish(long request) {
+	long pos = tail;
+	while (true) {
+	    int slot = (int) (pos & mask);
+	    long diff = sequences.get(slot) - pos;
+	    if (diff == 0) {
+		if (tailUpdater.compareAndSet(this, pos, pos + 1)) {
+		    requests[slot] = request;
+		    // Publish (a volatile write), then look for a parked consumer (a volatile
+		    // read): a consumer about to park either sees the request or is unparked.
+		    sequences.set(slot, pos + 1);
+		    if (consumerParked)
+			LockSupport.unpark(consumer);
+		    return true;
+		}
+		pos = tail;
+	    }
+	    else if (diff < 0)
+		return false;                   // full
+	    else
+		pos = tail;
+	}
+    }
+}
+
+// Padding, as in tpool.RingJobQueue: the producers' counter and the consumer's counter
+// each get a cache line of their own.
+abstract class RequestRingPad0 {
+    long p00, p01, p02, p03, p04, p05, p06;
+}
+
+abstract class RequestRingTail extends RequestRingPad0 {
+    volatile long tail = 0; // next position for a producer
+}
+
+abstract class RequestRingPad1 extends RequestRingTail {
+    long p10, p11, p12, p13, p14, p15, p16;
+}
+
+abstract class RequestRingHead extends RequestRingPad1 {
+    volatile long head = 0; // next position for the consumer
+}
+
+abstract class RequestRingPad2 extends RequestRingHead {
+    long p20, p21, p22, p23, p24, p25, p26;
+}
@@ -0,0 +1,233 @@
+package bq;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * AccountBQ scaled out: a ledger of many accounts, split into shards, with a Banker thread
+ * per shard. Each shard owns a slice of the balances and a BlockingQueue of its own:
+ *
+ *    deposit(17, +5) --> shard 17 % K: [ queue ] --> Banker 1 --> balances of 1, 5, 9, 13, 17 ...
+ *    deposit(42, -3) --> shard 42 % K: [ queue ] --> Banker 2 --> balances of 2, 6, 10, 14, 42 ...
+ *
+ * As in AccountBQ, only a shard's Banker ever touches the shard's balances; hence, the
+ * balances need no locks and no volatile. But the K Bankers run in parallel, and producers
+ * that hit different shards don't contend on one queue. An account's shard is its number
+ * modulo K -- a hash partition, as account numbers are already well spread.
+ *
+ * A bulk read, balances(), posts a snapshot request to every shard. Each Banker copies its
+ * slice when the request reaches the head of its queue; so each slice is exact as of that
+ * moment (every request queued before it in that shard has been applied, and none after),
+ * although different shards' slices are taken at slightly different moments.
+ *
+ * Closing has to be coordinated with the producers. If close() could slip its endOfStream
+ * marker in between a producer's check of 'closed' and its put(), the producer's request
+ * would land behind the marker, where no Banker ever looks: a deposit would be lost, and a
+ * balances() call would wait forever on its latch. Hence each shard has a read/write lock,
+ * its 'gate', and a 'closed' flag of its own: producers hold the shard's read lock (shared,
+ * so they don't block one another) from the check through the put, and close() takes each
+ * shard's write lock in turn, so that it waits for the puts in flight and then shuts out
+ * any more. A gate per shard, rather than one for the whole ledger, keeps a deposit from
+ * touching anything that another shard's producers touch: one lock word for everybody
+ * would be the very contended cache line that sharding is meant to be rid of. A snapshot
+ * that finds a shard closed is failed, and so is any snapshot a stopping Banker finds
+ * behind its marker, rather than leaving its caller hanging.
+ *
+ * Sample usage:
+ *
+ *    ShardedLedger ledger = new ShardedLedger(1024, 4); // 1,024 accounts, 4 Bankers
+ *    ledger.deposit(17, 100);
+ *    ledger.deposit(17, -30);
+ *    long[ ] snapshot = ledger.balances();               // snapshot[17] == 70
+ *    ledger.close();                                     // the Bankers finish up and exit
+ */
+public class ShardedLedger implements AutoCloseable {
+    private static final int queueCapacity = 1024; // per shard; producers block when it's full
+    private static final int maxBatch = 64;        // requests a Banker handles per wakeup
+
+    // A deposit (positive amount) or withdrawal (negative amount).
+    private static class Request {
+	final int account;
+	final long amount;
+
+	Request(int account, long amount) {
+	    this.account = account;
+	    this.amount = amount;
+	}
+    }
+
+    // Copy the shard's balances into 'into', then count down.
+    private static final class Snapshot extends Request {
+	final long[ ] into;
+	final CountDownLatch done;
+	volatile boolean failed = false;  // set if a shard closed before taking its slice
+
+	Snapshot(long[ ] into, CountDownLatch done) {
+	    super(-1, 0);
+	    this.into = into;
+	    this.done = done;
+	}
+    }
+
+    private static final Request endOfStream = new Request(-1, 0);
+
+    // A shard: its queue, its slice of the balances, and the one thread that touches them.
+    private final class ShardBanker extends Thread {
+	final BlockingQueue<Request> queue = new ArrayBlockingQueue<Request>(queueCapacity);
+	final ReentrantReadWriteLock gate = new ReentrantReadWriteLock();
+	boolean closed = false;          // guarded by the gate
+	private final int shard;
+	private final long[ ] balances;  // account a is at index a / K
+
+	ShardBanker(int shard) {
+	    super("banker-" + shard);
+	    this.shard = shard;
+	    this.balances = new long[(accounts - shard + shards - 1) / shards];
+	}
+
+	@Override
+	public void run() {
+	    List<Request> batch = new ArrayList<Request>(maxBatch);
+	    try {
+		while (true) {
+		    batch.add(queue.take());
+		    queue.drainTo(batch, maxBatch - 1);
+		    for (int i = 0; i < batch.size(); i++) {
+			Request r = batch.get(i);
+			if (r == endOfStream) {  // everything before it has been applied
+			    batch.subList(0, i + 1).clear();
+			    return;
+			}
+			else if (r instanceof Snapshot)
+			    snapshot((Snapshot) r);
+			else
+			    balances[r.account / shards] += r.amount;
+		    }
+		    batch.clear();
+		}
+	    }
+	    catch(InterruptedException e) { System.err.println(e); }
+	    finally {
+		queue.drainTo(batch);
+		failAll(batch);
+	    }
+	}
+
+	// The Banker is stopping: nobody will apply these. A snapshot's caller is told so
+	// (rather than left waiting on its latch); a deposit can't be handed back, and the
+	// gate keeps any from getting here after the marker.
+	private void failAll(List<Request> leftover) {
+	    for (Request r : leftover)
+		if (r instanceof Snapshot) {
+		    ((Snapshot) r).failed = true;
+		    ((Snapshot) r).done.countDown();
+		}
+		else if (r != endOfStream)
+		    System.err.println(getName() + ": deposit to account " + r.account + " not applied");
+	}
+
+	private void snapshot(Snapshot s) {
+	    for (int i = 0; i < balances.length; i++)
+		s.into[i * shards + shard] = balances[i];
+	    s.done.countDown();
+	}
+    }
+
+    private final int accounts;
+    private final int shards;
+    private final ShardBanker[ ] bankers;
+
+    public ShardedLedger(int accounts, int shards) {
+	if (accounts < 1 || shards < 1 || shards > accounts)
+	    throw new IllegalArgumentException("need 1 <= shards <= accounts");
+	this.accounts = accounts;
+	this.shards = shards;
+	bankers = new ShardBanker[shards];
+	for (int i = 0; i < shards; i++)
+	    bankers[i] = new ShardBanker(i);
+	for (ShardBanker b : bankers)
+	    b.start();
+    }
+
+    public int getAccountCount() { return accounts; }
+    public int getShardCount()   { return shards; }
+
+    // Queue a deposit (or, with a negative amount, a withdrawal) for the account's Banker.
+    // Blocks while that shard's queue is full.
+    public void deposit(int account, long amount) throws InterruptedException {
+	if (account < 0 || account >= accounts)
+	    throw new IllegalArgumentException("no such account: " + account);
+	if (!enqueue(account % shards, new Request(account, amount)))
+	    throw new IllegalStateException("ledger is closed");
+    }
+
+    // Every account's balance, each shard's slice consistent as described above.
+    public long[ ] balances() throws InterruptedException {
+	long[ ] snapshot = new long[accounts];
+	CountDownLatch done = new CountDownLatch(shards);
+	Snapshot request = new Snapshot(snapshot, done);
+	for (int i = 0; i < shards; i++)
+	    if (!enqueue(i, request)) {  // one request object serves all: each shard fills its own slots
+		request.failed = true;   // that shard is closed: its slice will never come
+		done.countDown();
+	    }
+	done.await();
+	if (request.failed)
+	    throw new IllegalStateException("ledger closed before the snapshot was taken");
+	return snapshot;              // the latch makes the Bankers' writes visible here
+    }
+
+    // Let the Bankers apply every request queued so far, then wait for them to exit. An
+    // interrupt doesn't cut this short, since the Bankers must get their markers; the
+    // interrupt status is restored on the way out.
+    @Override
+    public void close() {
+	boolean interrupted = false;
+	for (ShardBanker b : bankers) {
+	    b.gate.writeLock().lock();  // waits for the producers' puts in flight
+	    try {
+		if (b.closed)
+		    continue;
+		b.closed = true;
+		while (true) {
+		    try {
+			b.queue.put(endOfStream);
+			break;
+		    }
+		    catch(InterruptedException e) { interrupted = true; }
+		}
+	    }
+	    finally {
+		b.gate.writeLock().unlock();
+	    }
+	}
+	for (ShardBanker b : bankers)
+	    while (b.isAlive()) {
+		try {
+		    b.join();
+		}
+		catch(InterruptedException e) { interrupted = true; }
+	    }
+	if (interrupted)
+	    Thread.currentThread().interrupt();
+    }
+
+    // Queue a request for the shard's Banker, unless the shard is closed: then return false.
+    private boolean enqueue(int shard, Request r) throws InterruptedException {
+	ShardBanker b = bankers[shard];
+	b.gate.readLock().lockInterruptibly();
+	try {
+	    if (b.closed)
+		return false;
+	    b.queue.put(r);
+	    return true;
+	}
+	finally {
+	    b.gate.readLock().unlock();
+	}
+    }
+}
@@ -0,0 +1,129 @@
+package pipeline;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The Miser/Spendthrift bank as a four-stage Pipeline:
+ *
+ *    Miser, Spendthrift --> decode --> validate --> apply --> audit
+ *
+ *  -- the customers publish raw requests: a long, the account in the high 32 bits and the
+ *     amount in the low 32 (as in bq.RequestRing), with the odd malformed one
+ *  -- decode unpacks the account and amount into the event's fields
+ *  -- validate rejects unknown accounts and implausible amounts
+ *  -- apply updates the balances, partitioned by account: each account has one writer
+ *  -- audit tallies what was applied and rejected
+ *
+ * While the customers run, the program prints each stage's throughput and lag every quarter
+ * second; at the end, it checks that the audit agrees with the balances.
+ *
+ * Sample usage (the arguments are optional):
+ *
+ *    java pipeline.BankPipeline [requests per customer] [accounts] [decode workers] [apply workers]
+ */
+public class BankPipeline {
+    // The event: one per slot of the ring, reused lap after lap.
+    static final class BankEvent {
+	long raw;          // from a customer
+	int account;       // from decode
+	int amount;        // ditto
+	boolean valid;     // from validate
+	long balanceAfter; // from apply
+    }
+
+    private static final int maxAmount = 1_000;
+
+    public static void main(String[ ] args) throws Exception {
+	final int requests = (args.length > 0) ? Integer.parseInt(args[0]) : 5_000_000;
+	final int accounts = (args.length > 1) ? Integer.parseInt(args[1]) : 1024;
+	int decoders       = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+	int appliers       = (args.length > 3) ? Integer.parseInt(args[3]) : 2;
+
+	final long[ ] balances = new long[accounts];
+	final long[ ] audit = new long[3];  // applied, rejected, net amount: audit's alone
+
+	final Pipeline<BankEvent> pipeline = new Pipeline<BankEvent>(4096, BankEvent::new);
+	pipeline.addStage("decode", decoders, (e, seq) -> {
+		e.account = (int) (e.raw >>> 32);
+		e.amount = (int) e.raw;
+	    });
+	pipeline.addStage("validate", 1, (e, seq) -> {
+		e.valid = e.account >= 0 && e.account < accounts && Math.abs(e.amount) <= maxAmount;
+	    });
+	pipeline.addStage("apply", appliers, (e, seq) -> e.account, (e, seq) -> {
+		if (e.valid)
+		    e.balanceAfter = balances[e.account] += e.amount;
+	    });
+	pipeline.addStage("audit", 1, (e, seq) -> {
+		if (e.valid) {
+		    audit[0]++;
+		    audit[2] += e.amount;
+		}
+		else
+		    audit[1]++;
+	    });
+	pipeline.start();
+
+	Thread miser = customer(pipeline, requests, accounts, +1);
+	Thread spendthrift = customer(pipeline, requests, accounts, -1);
+	List<Stage<BankEvent>> stages = pipeline.getStages();
+	long[ ] last = new long[stages.size()];
+	long start = System.nanoTime(), lastTime = start;
+
+	System.out.printf("%8s", "ms");
+	for (Stage<BankEvent> s : stages)
+	    System.out.printf(" %22s", s.getName() + " (x" + s.getParallelism() + ") M/s, lag");
+	System.out.println();
+	miser.start();
+	spendthrift.start();
+	while (miser.isAlive() || spendthrift.isAlive()) {
+	    Thread.sleep(250);
+	    long now = System.nanoTime(), cursor = pipeline.getCursor();
+	    System.out.printf("%8d", (now - start) / 1_000_000L);
+	    for (int i = 0; i < stages.size(); i++) {
+		long processed = stages.get(i).getProcessed();
+		System.out.printf(" %14.2f %7d", (processed - last[i]) / ((now - lastTime) / 1e3),
+				  stages.get(i).getLag(cursor));
+		last[i] = processed;
+	    }
+	    System.out.println();
+	    lastTime = now;
+	}
+	pipeline.drainAndStop();
+	for (Stage<BankEvent> s : stages)
+	    if (s.getFailed() > 0)
+		System.out.println(s.getName() + ": " + s.getFailed() + " failed event(s), the last: " +
+				   s.getLastFailure());
+	double seconds = (System.nanoTime() - start) / 1e9;
+
+	long sum = 0;
+	for (long b : balances)
+	    sum += b;
+	System.out.printf("%d requests in %.2f s: %.2f M/s; applied %d, rejected %d%n",
+			  2L * requests, seconds, 2 * requests / seconds / 1e6, audit[0], audit[1]);
+	System.out.println((sum == audit[2] && audit[0] + audit[1] == 2L * requests) ?
+			   "audit agrees with the balances" : "AUDIT MISMATCH");
+    }
+
+    // A customer publishes deposits (+1) or withdrawals (-1) of random amounts to random
+    // accounts; one request in a thousand is malformed, for validate to catch.
+    private static Thread customer(final Pipeline<BankEvent> pipeline, final int requests,
+				   final int accounts, final int sign) {
+	return new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    ThreadLocalRandom rand = ThreadLocalRandom.current();
+		    for (int i = 0; i < requests; i++) {
+			int account = rand.nextInt(accounts);
+			int amount = sign * (1 + rand.nextInt(100));
+			if (rand.nextInt(1000) == 0)
+			    amount *= 1_000_000;  // malformed
+			long seq = pipeline.next();
+			pipeline.get(seq).raw = ((long) account << 32) | (amount & 0xFFFFFFFFL);
+			pipeline.publish(seq);
+		    }
+		}
+	    }, (sign > 0) ? "Miser" : "Spendthrift");
+    }
+}
@@ -0,0 +1,18 @@
+package pipeline;
+
+/**
+ * A stage's work on one event, in place: the handler reads what earlier stages wrote into
+ * the event and writes its own results into the same object for the stages downstream.
+ *
+ * A stage with several workers gives each event to exactly one of them, chosen by the
+ * stage's Partitioner: by sequence number unless the stage says otherwise. A handler
+ * that keeps per-key state, such as balances, partitions by that key, so that each key
+ * has a single writer.
+ */
+public interface EventHandler<E> {
+    void onEvent(E event, long sequence);
+
+    interface Partitioner<E> {
+	int partition(E event, long sequence);  // any int: the stage reduces it modulo its workers
+    }
+}
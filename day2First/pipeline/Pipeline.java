@@ -0,0 +1,90 @@
+package pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A chain of stages over one RingBuffer, in the style of the LMAX Disruptor: producers
+ * publish events into the ring, and each stage, in order, processes every event in place,
+ * on as many worker threads as suits its work. Stages are linked not by queues but by
+ * sequence numbers: a stage goes as far as the stage before it has got (a SequenceBarrier),
+ * and the producers wrap round the ring only as far as the last stage has got.
+ *
+ * The RaceConditionBQ topology -- customers, a BlockingQueue, a Banker -- becomes, for
+ * instance (see BankPipeline):
+ *
+ *    Pipeline<BankEvent> p = new Pipeline<BankEvent>(1024, BankEvent::new);
+ *    p.addStage("decode", 2, decoder);
+ *    p.addStage("validate", 1, validator);
+ *    p.addStage("apply", 4, byAccount, banker);  // partitioned: one writer per account
+ *    p.addStage("audit", 1, auditor);
+ *    p.start();
+ *    ...                                         // producers: next(), get(), publish()
+ *    p.drainAndStop();
+ *
+ * Unlike a queue between each pair of threads, the ring holds each event once: no stage
+ * copies it, allocates, or takes a lock to pass it on.
+ */
+public class Pipeline<E> {
+    private final RingBuffer<E> ring;
+    private final List<Stage<E>> stages = new ArrayList<Stage<E>>();
+    private volatile boolean running = false;
+    private boolean started = false;
+
+    public Pipeline(int ringSize, RingBuffer.EventFactory<E> factory) {
+	ring = new RingBuffer<E>(ringSize, factory);
+    }
+
+    public Stage<E> addStage(String name, int parallelism, EventHandler<E> handler) {
+	return addStage(name, parallelism, null, handler);
+    }
+
+    public Stage<E> addStage(String name, int parallelism, EventHandler.Partitioner<E> partitioner,
+			     EventHandler<E> handler) {
+	if (started)
+	    throw new IllegalStateException("pipeline already started");
+	Stage<E> stage = new Stage<E>(name, parallelism, partitioner, handler);
+	stages.add(stage);
+	return stage;
+    }
+
+    public void start() {
+	if (started || stages.isEmpty())
+	    throw new IllegalStateException("already started, or no stages");
+	started = true;
+	running = true;
+	Sequence[ ] upstream = new Sequence[0];
+	for (Stage<E> stage : stages) {
+	    stage.init(ring, new SequenceBarrier(ring, upstream), this);
+	    upstream = stage.getSequences();
+	}
+	ring.setGatingSequences(upstream);  // the last stage's
+	for (Stage<E> stage : stages)
+	    stage.start();
+    }
+
+    // The producers' side: see RingBuffer.
+    public long next()              { return ring.next(); }
+    public E get(long sequence)     { return ring.get(sequence); }
+    public void publish(long seq)   { ring.publish(seq); }
+    public long getCursor()         { return ring.getCursor(); }
+
+    public List<Stage<E>> getStages() {
+	return stages;
+    }
+
+    boolean isRunning() {
+	return running;
+    }
+
+    // Once the producers are done: let every published event through every stage, then
+    // stop the workers.
+    public void drainAndStop() throws InterruptedException {
+	Stage<E> last = stages.get(stages.size() - 1);
+	while (last.getLag(ring.getCursor()) > 0)
+	    Thread.sleep(1);
+	running = false;
+	for (Stage<E> stage : stages)
+	    stage.join();
+    }
+}
@@ -0,0 +1,106 @@
+package pipeline;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The ring of events that a Pipeline's producers and stages share. Every event object is
+ * created up front, by an EventFactory; a producer claims the next sequence number, fills
+ * in that slot's event in place, and publishes it. The stages then read and update the
+ * same object, each in turn: nothing is copied or allocated per event.
+ *
+ *    producer:   long seq = ring.next();       // claim: waits while the ring is full
+ *                BankEvent e = ring.get(seq);  // the preallocated event in that slot
+ *                e.raw = ...;                  // fill it in
+ *                ring.publish(seq);            // hand it to the first stage
+ *
+ * Any number of producers may claim at once: a compareAndSet on the claim counter hands
+ * out sequence numbers. As producers may finish in any order, each slot records the lap
+ * of the ring on which it was last published, and the first stage reads on only as far as
+ * the run of published slots goes.
+ *
+ * A producer may not claim a slot until the last stage has finished with its previous
+ * occupant, a full lap earlier: the ring's 'gating' sequences, which Pipeline sets.
+ */
+public class RingBuffer<E> {
+    public interface EventFactory<E> {
+	E newInstance();
+    }
+
+    private final Object[ ] events;
+    private final int mask;
+    private final int shift;                    // log2 of the size
+    private final AtomicIntegerArray published; // the lap each slot was last published on
+    private final Sequence claimed = new Sequence(-1);
+    private final Sequence gatingCache = new Sequence(-1); // a recent minimum of the gates
+    private volatile Sequence[ ] gating = new Sequence[0];
+
+    public RingBuffer(int size, EventFactory<E> factory) {
+	if (size < 2 || Integer.bitCount(size) != 1)
+	    throw new IllegalArgumentException("size must be a power of 2");
+	events = new Object[size];
+	for (int i = 0; i < size; i++)
+	    events[i] = factory.newInstance();
+	mask = size - 1;
+	shift = Integer.numberOfTrailingZeros(size);
+	published = new AtomicIntegerArray(size);
+	for (int i = 0; i < size; i++)
+	    published.set(i, -1);
+    }
+
+    public int size() {
+	return mask + 1;
+    }
+
+    // Claim the next sequence number, waiting for room if need be.
+    public long next() {
+	long backoff = 1;
+	while (true) {
+	    long current = claimed.get();
+	    long next = current + 1;
+	    long wrapPoint = next - size();  // the slot's previous occupant
+	    if (wrapPoint > gatingCache.get()) {
+		long min = Sequence.minimum(gating, current);
+		if (wrapPoint > min) {       // the last stage hasn't finished with it yet
+		    LockSupport.parkNanos(backoff);
+		    backoff = Math.min(backoff * 2, 100_000L);
+		    continue;
+		}
+		gatingCache.set(min);
+	    }
+	    if (claimed.compareAndSet(current, next))
+		return next;
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+	return (E) events[(int) sequence & mask];
+    }
+
+    public void publish(long sequence) {
+	published.set((int) sequence & mask, (int) (sequence >>> shift));
+    }
+
+    // The highest sequence number claimed so far, whether or not yet published.
+    public long getCursor() {
+	return claimed.get();
+    }
+
+    boolean isPublished(long sequence) {
+	return published.get((int) sequence & mask) == (int) (sequence >>> shift);
+    }
+
+    // The last of the run of published sequences from 'from' through 'to'; from - 1 if
+    // 'from' itself isn't published yet.
+    long highestPublished(long from, long to) {
+	for (long s = from; s <= to; s++)
+	    if (!isPublished(s))
+		return s - 1;
+	return to;
+    }
+
+    void setGatingSequences(Sequence[ ] sequences) {
+	gating = sequences.clone();
+    }
+}
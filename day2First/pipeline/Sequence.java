@@ -0,0 +1,59 @@
+package pipeline;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A counter of progress through a RingBuffer: the highest sequence number that a producer
+ * has claimed, or that a stage's worker has finished with. Sequences start at -1.
+ *
+ * Every worker writes its own Sequence and the workers downstream read it, over and over;
+ * so, as in tpool.RingJobQueue, padding classes give the value a cache line of its own,
+ * so that two Sequences never share a line.
+ */
+public class Sequence extends SequencePad1 {
+    private static final AtomicLongFieldUpdater<SequenceValue> updater =
+	AtomicLongFieldUpdater.newUpdater(SequenceValue.class, "value");
+
+    public Sequence(long initial) {
+	value = initial;
+    }
+
+    public long get() {
+	return value;
+    }
+
+    // An ordered store (lazySet): cheaper than a volatile write, and enough for a single
+    // writer publishing its progress -- readers see it soon, and never out of order.
+    public void set(long v) {
+	updater.lazySet(this, v);
+    }
+
+    public boolean compareAndSet(long expected, long v) {
+	return updater.compareAndSet(this, expected, v);
+    }
+
+    // The smallest of the sequences, or 'none' if there are none.
+    static long minimum(Sequence[ ] sequences, long none) {
+	long min = Long.MAX_VALUE;
+	for (Sequence s : sequences)
+	    min = Math.min(min, s.get());
+	return (sequences.length == 0) ? none : min;
+    }
+
+    @Override
+    public String toString() {
+	return Long.toString(value);
+    }
+}
+
+abstract class SequencePad0 {
+    long p00, p01, p02, p03, p04, p05, p06;
+}
+
+abstract class SequenceValue extends SequencePad0 {
+    volatile long value;
+}
+
+abstract class SequencePad1 extends SequenceValue {
+    long p10, p11, p12, p13, p14, p15, p16;
+}
@@ -0,0 +1,57 @@
+package pipeline;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * What a stage's worker waits on: the sequence numbers it may process next. For the first
+ * stage, that's as far as the producers have published; for a later stage, as far as
+ * every worker of the stage before it has got.
+ *
+ *    producers --> [ ring ] <-- decode <-- validate <-- apply <-- audit
+ *                     ^                                             |
+ *                     `----------------- gating --------------------'
+ *
+ * A waiting worker spins briefly, then yields, then parks for growing intervals (up to
+ * 100 us): a stage with nothing to do costs little CPU, and one that's kept busy never
+ * parks at all.
+ */
+final class SequenceBarrier {
+    private static final int spinRounds = 100;
+    private static final int yieldRounds = 10;
+    private static final long maxParkNanos = 100_000L;
+
+    private final RingBuffer<?> ring;
+    private final Sequence[ ] upstream;  // empty: the first stage, fed by the producers
+
+    SequenceBarrier(RingBuffer<?> ring, Sequence[ ] upstream) {
+	this.ring = ring;
+	this.upstream = upstream;
+    }
+
+    // The highest sequence number, at least 'next', that's ready to be processed; or
+    // next - 1 if the pipeline stops running before there is one.
+    long waitFor(long next, Pipeline<?> pipeline) {
+	long parkNanos = 1_000L;
+	for (int round = 0; ; round++) {
+	    long available = available(next);
+	    if (available >= next || !pipeline.isRunning())
+		return available;
+	    if (round < spinRounds)
+		continue;
+	    if (round < spinRounds + yieldRounds)
+		Thread.yield();
+	    else {
+		LockSupport.parkNanos(parkNanos);
+		parkNanos = Math.min(parkNanos * 2, maxParkNanos);
+	    }
+	}
+    }
+
+    private long available(long next) {
+	if (upstream.length == 0) {
+	    long cursor = ring.getCursor();
+	    return (cursor < next) ? next - 1 : ring.highestPublished(next, cursor);
+	}
+	return Sequence.minimum(upstream, next - 1);
+    }
+}
@@ -0,0 +1,143 @@
+package pipeline;
+
+/**
+ * One step of a Pipeline: an EventHandler run by one or more worker threads. Each worker
+ * walks every sequence number in turn, handles the events that its stage's Partitioner
+ * assigns to it, and then advances its own Sequence past the whole run it has seen --
+ * so that the next stage can go on as soon as every worker here has passed a number.
+ *
+ * The counters, for finding the bottleneck:
+ *
+ *  -- getProcessed(): events handled so far; sampled twice, the stage's throughput
+ *  -- getLag(): how many published events the stage has yet to finish. A stage whose lag
+ *     keeps growing while the stages after it keep up is the bottleneck.
+ *  -- getFailed(): events whose handler threw a RuntimeException; getLastFailure() has
+ *     the latest such exception.
+ *
+ * A worker survives a failed event, as a ThreadPool's workers survive failed jobs: it
+ * counts the failure and goes on to the next event. Were the exception to end the worker,
+ * its Sequence would stop short, and every stage downstream -- and drainAndStop() -- would
+ * wait for it forever. (A failed event still counts as handled, and moves on downstream
+ * with whatever the handler left in it.)
+ */
+public final class Stage<E> {
+    private final String name;
+    private final EventHandler<E> handler;
+    private final EventHandler.Partitioner<E> partitioner;  // null: by sequence number
+    private final Worker[ ] workers;
+    private volatile RuntimeException lastFailure = null;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})  // an array of an inner class of a generic class
+    Stage(String name, int parallelism, EventHandler.Partitioner<E> partitioner,
+	  EventHandler<E> handler) {
+	if (parallelism < 1)
+	    throw new IllegalArgumentException("parallelism must be at least 1");
+	this.name = name;
+	this.handler = handler;
+	this.partitioner = partitioner;
+	this.workers = (Worker[ ]) new Stage.Worker[parallelism];
+    }
+
+    public String getName() {
+	return name;
+    }
+
+    public int getParallelism() {
+	return workers.length;
+    }
+
+    public long getProcessed() {
+	long n = 0;
+	for (Worker w : workers)
+	    n += w.processed.get();
+	return n;
+    }
+
+    public long getFailed() {
+	long n = 0;
+	for (Worker w : workers)
+	    n += w.failed.get();
+	return n;
+    }
+
+    public RuntimeException getLastFailure() {  // null if no event has failed
+	return lastFailure;
+    }
+
+    // How far behind the producers' claims the stage's slowest worker is.
+    public long getLag(long cursor) {
+	return Math.max(0, cursor - Sequence.minimum(getSequences(), cursor));
+    }
+
+    Sequence[ ] getSequences() {
+	Sequence[ ] sequences = new Sequence[workers.length];
+	for (int i = 0; i < workers.length; i++)
+	    sequences[i] = workers[i].sequence;
+	return sequences;
+    }
+
+    // Create the workers, each behind the barrier on the previous stage.
+    void init(RingBuffer<E> ring, SequenceBarrier barrier, Pipeline<E> pipeline) {
+	for (int i = 0; i < workers.length; i++)
+	    workers[i] = new Worker(i, ring, barrier, pipeline);
+    }
+
+    void start() {
+	for (Worker w : workers)
+	    w.start();
+    }
+
+    void join() throws InterruptedException {
+	for (Worker w : workers)
+	    w.join();
+    }
+
+    private final class Worker extends Thread {
+	final Sequence sequence = new Sequence(-1);
+	final Sequence processed = new Sequence(0);  // written by this worker alone
+	final Sequence failed = new Sequence(0);     // ditto
+	private final int index;
+	private final RingBuffer<E> ring;
+	private final SequenceBarrier barrier;
+	private final Pipeline<E> pipeline;
+
+	Worker(int index, RingBuffer<E> ring, SequenceBarrier barrier, Pipeline<E> pipeline) {
+	    super(name + "-" + index);
+	    setDaemon(true);
+	    this.index = index;
+	    this.ring = ring;
+	    this.barrier = barrier;
+	    this.pipeline = pipeline;
+	}
+
+	@Override
+	public void run() {
+	    int n = workers.length;
+	    long next = 0;
+	    long count = 0;
+	    long failures = 0;
+	    while (true) {
+		long available = barrier.waitFor(next, pipeline);
+		if (available < next)
+		    return;                        // stopped, and nothing left to do
+		for (; next <= available; next++) {
+		    E event = ring.get(next);
+		    int part = (partitioner == null) ?
+			(int) next : partitioner.partition(event, next);
+		    if (n == 1 || (part & Integer.MAX_VALUE) % n == index) {
+			try {
+			    handler.onEvent(event, next);
+			}
+			catch (RuntimeException e) {  // the worker survives, but counts it
+			    failed.set(++failures);
+			    lastFailure = e;
+			}
+			count++;
+		    }
+		}
+		processed.set(count);
+		sequence.set(available);           // the whole run: handled or not ours
+	    }
+	}
+    }
+}
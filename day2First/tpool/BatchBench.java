@@ -0,0 +1,74 @@
+package tpool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compare job-at-a-time submission with batch submission. Each 'tick', the main-thread
+ * submits a burst of tiny jobs and then waits for the pool to drain, so that the workers
+ * fall idle between ticks and each burst has to wake them up again:
+ *
+ *  -- one by one: execute(job) per job, which publishes and wakes per job
+ *  -- executeAll: the whole burst as one Collection
+ *  -- buffered:   a SubmissionBuffer, flushed at the end of each tick
+ *
+ * Sample usage (the arguments are optional):
+ *
+ *    java tpool.BatchBench [workers] [jobs per tick] [ticks]
+ */
+public class BatchBench {
+    public static void main(String[ ] args) throws Exception {
+	int workers = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+	int perTick = (args.length > 1) ? Integer.parseInt(args[1]) : 2_000;
+	int ticks   = (args.length > 2) ? Integer.parseInt(args[2]) : 500;
+
+	System.out.printf("%d workers, %d ticks of %d jobs%n", workers, ticks, perTick);
+	for (WaitStrategy ws : new WaitStrategy[ ] {WaitStrategy.SPIN_PARK, WaitStrategy.BLOCK}) {
+	    for (int round = 0; round < 2; round++) { // the first round warms up the JIT
+		double one   = runOnce(ws, 0, workers, perTick, ticks);
+		double all   = runOnce(ws, 1, workers, perTick, ticks);
+		double buf   = runOnce(ws, 2, workers, perTick, ticks);
+		if (round == 1)
+		    System.out.printf("%-10s one by one %10.0f   executeAll %10.0f   buffered %10.0f jobs/s%n",
+				      ws, one, all, buf);
+	    }
+	}
+    }
+
+    private static double runOnce(WaitStrategy ws, int how, int workers, int perTick, int ticks)
+	throws Exception {
+	ThreadPool pool = new ThreadPool(workers, workers, 0,
+					 new RingJobQueue(perTick), ws);
+	final LongAdder done = new LongAdder();
+	Runnable job = new Runnable() {
+		@Override
+		public void run() { done.increment(); }
+	    };
+	List<Runnable> burst = new ArrayList<Runnable>();
+	for (int i = 0; i < perTick; i++)
+	    burst.add(job);
+	SubmissionBuffer buffer = pool.newSubmissionBuffer(perTick);
+
+	long start = System.nanoTime();
+	for (long t = 1; t <= ticks; t++) {
+	    if (how == 0)
+		for (Runnable r : burst)
+		    pool.execute(r);
+	    else if (how == 1)
+		pool.executeAll(burst);
+	    else {
+		for (Runnable r : burst)
+		    buffer.add(r);
+		buffer.flush();
+	    }
+	    while (done.sum() < t * perTick)  // end of tick: wait for the pool to drain
+		Thread.yield();
+	}
+	long elapsed = System.nanoTime() - start;
+
+	pool.shutdown();
+	pool.awaitTermination();
+	return (double) ticks * perTick * 1e9 / elapsed;
+    }
+}
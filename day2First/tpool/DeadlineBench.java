@@ -0,0 +1,84 @@
+package tpool;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Latency-sensitive jobs in a pool swamped with bulk jobs: FIFO against EDF.
+ *
+ * A backlog of bulk jobs (minPriority, each a fraction of a millisecond of computation)
+ * goes in first. The main-thread then submits urgent jobs (maxPriority) at intervals and
+ * records how long each one waited to start. Alongside each urgent job goes a deadline job
+ * that must start within 2 ms. With the RingJobQueue, the urgent jobs that arrive during
+ * the backlog wait behind all of it, and their deadline jobs are dropped; with the
+ * DeadlineJobQueue, they go to the front.
+ *
+ * Aging sets a limit to that: a bulk job submitted more than 100 ms ago is due before any
+ * new urgent job. A backlog much longer than 100 ms therefore narrows the difference, as it
+ * should -- the bulk jobs aren't to starve.
+ *
+ * Sample usage (the arguments are optional):
+ *
+ *    java tpool.DeadlineBench [workers] [bulk jobs] [urgent jobs]
+ */
+public class DeadlineBench {
+    private static volatile long sink; // keeps the bulk jobs' work from being optimized away
+
+    public static void main(String[ ] args) throws Exception {
+	int workers = (args.length > 0) ? Integer.parseInt(args[0]) : 2;
+	int bulk    = (args.length > 1) ? Integer.parseInt(args[1]) : 2_000;
+	int urgent  = (args.length > 2) ? Integer.parseInt(args[2]) : 200;
+
+	System.out.printf("%d workers, %d bulk jobs, %d urgent jobs%n", workers, bulk, urgent);
+	System.out.printf("%-18s %14s %14s %10s%n", "queue", "urgent p50 (us)", "p99 (us)", "dropped");
+	runOnce("RingJobQueue", new RingJobQueue(bulk * 2 + urgent * 4), workers, bulk, urgent);
+	runOnce("DeadlineJobQueue", new DeadlineJobQueue(), workers, bulk, urgent);
+    }
+
+    private static void runOnce(String label, JobQueue queue, int workers,
+				int bulk, int urgent) throws Exception {
+	ThreadPool pool = new ThreadPool(workers, queue);
+	final CountDownLatch done = new CountDownLatch(bulk + urgent);
+	final long[ ] waits = new long[urgent];
+	DeadlineJob[ ] deadlineJobs = new DeadlineJob[urgent];
+
+	for (int i = 0; i < bulk; i++)
+	    pool.execute(new Runnable() {
+		    @Override
+		    public void run() {
+			long x = 0;
+			for (int k = 0; k < 20_000; k++)
+			    x += k * 31 ^ x;
+			sink = x;
+			done.countDown();
+		    }
+		}, DeadlineJob.minPriority);
+
+	for (int i = 0; i < urgent; i++) {
+	    final int k = i;
+	    final long submitted = System.nanoTime();
+	    pool.execute(new Runnable() {
+		    @Override
+		    public void run() {
+			waits[k] = System.nanoTime() - submitted;
+			done.countDown();
+		    }
+		}, DeadlineJob.maxPriority);
+	    deadlineJobs[i] = pool.executeBefore(new Runnable() {
+		    @Override
+		    public void run() { }
+		}, submitted + 2_000_000L);
+	    Thread.sleep(1);
+	}
+	done.await();
+	pool.shutdown();
+	pool.awaitTermination();
+
+	int dropped = 0;
+	for (DeadlineJob dj : deadlineJobs)
+	    if (dj.isDropped())
+		dropped++;
+	java.util.Arrays.sort(waits);
+	System.out.printf("%-18s %14.1f %14.1f %10d%n", label,
+			  waits[urgent / 2] / 1e3, waits[(int) (urgent * 0.99)] / 1e3, dropped);
+    }
+}
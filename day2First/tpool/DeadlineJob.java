@@ -0,0 +1,94 @@
+package tpool;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A job with a due time, for earliest-deadline-first (EDF) scheduling in a DeadlineJobQueue.
+ * The due time is a System.nanoTime() reading, and a job comes in one of two kinds:
+ *
+ *  -- A priority job (withPriority) has a soft due time: its submission time plus a slack
+ *     that shrinks as the priority rises, agingStepNanos per level. A maxPriority job is due
+ *     at once, and a minPriority job 100 ms after its submission. Such a job is never dropped.
+ *
+ *  -- A deadline job (withDeadline) has a hard due time: if it hasn't started by then, it's
+ *     dropped instead of run, and isDropped() says so afterwards.
+ *
+ * Turning priorities into due times is what protects low-priority jobs from starvation
+ * ('aging'): a job's due time never changes, but every later submission's is later still;
+ * hence, a minPriority job waits behind at most 100 ms' worth of newer high-priority work.
+ *
+ * A DeadlineJob checks its own deadline when it runs, so that it behaves the same way in
+ * any pool, although only a DeadlineJobQueue runs jobs in order of due time. A DeadlineJob
+ * is meant to be submitted once.
+ */
+public final class DeadlineJob implements Runnable {
+    public static final int minPriority = 0;
+    public static final int normPriority = 5;   // plain Runnables in a DeadlineJobQueue
+    public static final int maxPriority = 10;
+    public static final long agingStepNanos = 10_000_000L;  // 10 ms of slack per level
+
+    private static final AtomicLong sequencer = new AtomicLong(0);
+    private static final AtomicIntegerFieldUpdater<DeadlineJob> droppedUpdater =
+	AtomicIntegerFieldUpdater.newUpdater(DeadlineJob.class, "dropped");
+
+    private final Runnable job;
+    final long submittedAt;   // System.nanoTime()
+    final long due;           // ditto: the EDF key
+    final long sequence;      // FIFO among jobs due at the same time
+    private final boolean hard;
+    private volatile int dropped = 0;   // 1 once dropped: set by CAS, exactly once
+
+    private DeadlineJob(Runnable job, long submittedAt, long due, boolean hard) {
+	if (job == null)
+	    throw new NullPointerException();
+	this.job = job;
+	this.submittedAt = submittedAt;
+	this.due = due;
+	this.hard = hard;
+	this.sequence = sequencer.getAndIncrement();
+    }
+
+    // Higher numbers are more urgent: minPriority through maxPriority.
+    public static DeadlineJob withPriority(Runnable job, int priority) {
+	if (priority < minPriority || priority > maxPriority)
+	    throw new IllegalArgumentException("priority must be from " + minPriority +
+					       " through " + maxPriority);
+	long now = System.nanoTime();
+	return new DeadlineJob(job, now, now + (maxPriority - priority) * agingStepNanos, false);
+    }
+
+    // The job must start by the given System.nanoTime(), or not at all.
+    public static DeadlineJob withDeadline(Runnable job, long deadlineNanoTime) {
+	return new DeadlineJob(job, System.nanoTime(), deadlineNanoTime, true);
+    }
+
+    // The job itself, for a pool that must tell what it's running: see KeyedSerializer.
+    Runnable getJob() {
+	return job;
+    }
+
+    public boolean isDropped() {
+	return dropped != 0;
+    }
+
+    // The difference, not a comparison of the two readings: nanoTime() values may wrap.
+    boolean isExpired(long now) {
+	return hard && now - due > 0;
+    }
+
+    // Mark the job as dropped: true for the one caller that actually dropped it, even if
+    // the queue's expiry and a worker race to drop it.
+    boolean drop() {
+	return droppedUpdater.compareAndSet(this, 0, 1);
+    }
+
+    @Override
+    public void run() {
+	if (isExpired(System.nanoTime())) {  // too late: a cheap check, before any work
+	    drop();
+	    return;
+	}
+	job.run();
+    }
+}
@@ -0,0 +1,93 @@
+package tpool;
+
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A job queue that hands out jobs earliest-deadline-first rather than first-in-first-out,
+ * so that latency-sensitive jobs overtake bulk jobs in the same pool:
+ *
+ *    ThreadPool tpool = new ThreadPool(8, new DeadlineJobQueue());
+ *    tpool.execute(bulkJob, DeadlineJob.minPriority);
+ *    tpool.execute(urgentJob, DeadlineJob.maxPriority);      // runs first
+ *    tpool.executeBefore(quote, System.nanoTime() + 5_000_000L); // in 5 ms, or never
+ *
+ * The queue accepts any Runnable; one that isn't already a DeadlineJob is treated as
+ * a normPriority job. See DeadlineJob for how priorities become due times.
+ *
+ * The obvious structure for EDF is a binary heap, but a heap shared by many threads (such
+ * as a PriorityBlockingQueue) needs one lock around every offer() and poll(). This queue
+ * is a ConcurrentSkipListSet instead: ordered like a heap, but lock-free, so submitters and
+ * workers contend only where they touch the same nodes. A skip list, unlike the RingJobQueue,
+ * allocates a node or so per job and is unbounded: offer() always succeeds.
+ *
+ * A deadline job whose deadline has passed sorts to the front, as the most overdue job in
+ * the queue. poll() then discards it on the spot, at the cost of one removal, and counts it
+ * (getExpiredCount()) instead of handing it to a worker.
+ */
+public class DeadlineJobQueue implements JobQueue {
+    // Due times are nanoTime() readings: compare by difference, then by submission order.
+    private static final Comparator<DeadlineJob> earliestDeadlineFirst = new Comparator<DeadlineJob>() {
+	    @Override
+	    public int compare(DeadlineJob a, DeadlineJob b) {
+		long d = a.due - b.due;
+		if (d != 0)
+		    return (d < 0) ? -1 : 1;
+		return Long.compare(a.sequence, b.sequence);
+	    }
+	};
+
+    private final ConcurrentSkipListSet<DeadlineJob> jobs =
+	new ConcurrentSkipListSet<DeadlineJob>(earliestDeadlineFirst);
+    private final AtomicInteger count = new AtomicInteger(0);  // the set's size() is O(n)
+    private final LongAdder expired = new LongAdder();
+
+    @Override
+    public boolean offer(Runnable job) {
+	DeadlineJob dj = (job instanceof DeadlineJob) ?
+	    (DeadlineJob) job : DeadlineJob.withPriority(job, DeadlineJob.normPriority);
+	jobs.add(dj);
+	count.incrementAndGet();
+	return true;  // never full
+    }
+
+    @Override
+    public Runnable poll() {
+	return poll(null);
+    }
+
+    @Override
+    public Runnable poll(long[ ] enqueuedAt) {
+	long now = System.nanoTime();
+	DeadlineJob dj;
+	while ((dj = jobs.pollFirst()) != null) {
+	    count.decrementAndGet();
+	    if (dj.isExpired(now)) {  // too late to run: drop it and try the next one
+		if (dj.drop())
+		    expired.increment();
+		continue;
+	    }
+	    if (enqueuedAt != null)
+		enqueuedAt[0] = dj.submittedAt;
+	    return dj;
+	}
+	return null;
+    }
+
+    @Override
+    public int size() {
+	return Math.max(0, count.get());  // poll() may decrement before offer() increments
+    }
+
+    @Override
+    public boolean isEmpty() {
+	return jobs.isEmpty();
+    }
+
+    // How many deadline jobs this queue has dropped because their deadlines had passed.
+    public long getExpiredCount() {
+	return expired.sum();
+    }
+}
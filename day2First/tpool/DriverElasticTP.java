@@ -0,0 +1,66 @@
+package tpool;
+
+/**
+ * A program to watch an elastic ThreadPool size itself. There are two phases:
+ *
+ *  -- Phase 1: jobs that sleep about 10 ms apiece, in the manner of DriverTP's Job.
+ *     A worker running such a job mostly waits; hence, more workers mean more
+ *     throughput, and the pool should climb toward its maximum size.
+ *
+ *  -- Phase 2: jobs that only compute. Once every core is busy, extra workers add nothing
+ *     but context switches; hence, the pool should drift back down toward the core count,
+ *     and then shrink to its core size once the work runs out.
+ *
+ * Every half second until a phase's jobs have all been taken, the main-thread reports
+ * the pool size, the queue depth, and the jobs completed so far. Unlike DriverTP, the
+ * program shuts the pool down and exits, printing the pool's statistics on the way out.
+ */
+public class DriverElasticTP {
+    private static volatile long sink; // keeps the JIT from discarding the computation
+
+    public static void main(String[ ] args) throws Exception {
+	final int cores = Runtime.getRuntime().availableProcessors();
+	ThreadPool tp = new ThreadPool(2, 128, 2_000,             // 2 to 128 workers, 2-second keep-alive
+				       new RingJobQueue(1 << 15)); // room for every job up front
+
+	System.out.println("Phase 1: sleeping jobs");
+	for (int i = 0; i < 10_000; i++)
+	    tp.execute(new Runnable() {
+		    @Override
+		    public void run() {
+			try {
+			    Thread.sleep(10);
+			}
+			catch(InterruptedException e) { }
+		    }
+		});
+	report(tp);
+
+	System.out.println("Phase 2: computing jobs (" + cores + " cores)");
+	for (int i = 0; i < 5_000; i++)
+	    tp.execute(new Runnable() {
+		    @Override
+		    public void run() {
+			long x = 1;
+			for (int k = 0; k < 1_000_000; k++)
+			    x = x * 31 + k;
+			if (x == 0)
+			    sink = x;
+		    }
+		});
+	report(tp);
+
+	tp.shutdown();
+	tp.awaitTermination();
+	System.out.println(tp.getStats());
+    }
+
+    // Report until the queue has drained.
+    private static void report(ThreadPool tp) throws InterruptedException {
+	do {
+	    Thread.sleep(500);
+	    System.out.printf("  pool size %3d   queue depth %6d   completed %8d%n",
+			      tp.getPoolSize(), tp.getQueueDepth(), tp.getCompletedJobCount());
+	} while (tp.getQueueDepth() > 0);
+    }
+}
@@ -0,0 +1,85 @@
+package tpool;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keyed execution in place of a single Banker thread: several producer threads submit
+ * deposits and withdrawals for many accounts, keyed by account number, to one ThreadPool.
+ * The balances are plain, unsynchronized longs, and the updates to them are not atomic --
+ * yet no update is lost, because execute(key, job) never runs two jobs for the same
+ * account at once.
+ *
+ * Each job also checks that it runs in the order its producer submitted it, relative to
+ * the producer's earlier jobs for the same account.
+ *
+ * Sample usage (the arguments are optional):
+ *
+ *    java tpool.DriverKeyedTP [workers] [accounts] [producers] [updates per producer]
+ */
+public class DriverKeyedTP {
+    public static void main(String[ ] args) throws Exception {
+	int workers   = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+	final int accounts  = (args.length > 1) ? Integer.parseInt(args[1]) : 64;
+	int producers = (args.length > 2) ? Integer.parseInt(args[2]) : 4;
+	final int updates   = (args.length > 3) ? Integer.parseInt(args[3]) : 250_000;
+
+	final ThreadPool pool = new ThreadPool(workers);
+	final long[ ] balances = new long[accounts];              // one per account: no locks
+	final long[ ] expected = new long[accounts];              // tallied by the producers
+	final int[ ][ ] lastSeen = new int[producers][accounts];  // sequence numbers, for the order check
+	final int[ ] outOfOrder = new int[1];                     // written only under a key's serialization
+	final CountDownLatch done = new CountDownLatch(producers * updates);
+
+	long start = System.nanoTime();
+	Thread[ ] threads = new Thread[producers];
+	for (int p = 0; p < producers; p++) {
+	    final int producer = p;
+	    threads[p] = new Thread(new Runnable() {
+		    @Override
+		    public void run() {
+			ThreadLocalRandom rand = ThreadLocalRandom.current();
+			long[ ] mine = new long[accounts];
+			int[ ] sequence = new int[accounts];
+			for (int i = 0; i < updates; i++) {
+			    final int account = rand.nextInt(accounts);
+			    final int amount = rand.nextInt(-100, 101);
+			    final int seq = ++sequence[account];
+			    mine[account] += amount;
+			    pool.execute(Integer.valueOf(account), new Runnable() {
+				    @Override
+				    public void run() {
+					balances[account] += amount;  // a read, then a write
+					if (lastSeen[producer][account] + 1 != seq)
+					    synchronized(outOfOrder) { outOfOrder[0]++; }
+					lastSeen[producer][account] = seq;
+					done.countDown();
+				    }
+				});
+			}
+			synchronized(expected) {
+			    for (int a = 0; a < accounts; a++)
+				expected[a] += mine[a];
+			}
+		    }
+		});
+	    threads[p].start();
+	}
+	for (Thread t : threads)
+	    t.join();
+	done.await();
+	long elapsed = System.nanoTime() - start;
+	pool.shutdown();
+	pool.awaitTermination();
+
+	int wrong = 0;
+	for (int a = 0; a < accounts; a++)
+	    if (balances[a] != expected[a])
+		wrong++;
+	System.out.printf("%d updates to %d accounts on %d workers: %.0f updates/s%n",
+			  (long) producers * updates, accounts, workers,
+			  producers * (double) updates / (elapsed / 1e9));
+	System.out.printf("wrong balances: %d, out-of-order updates: %d%n", wrong, outOfOrder[0]);
+	System.out.println(pool.getStats());
+    }
+}
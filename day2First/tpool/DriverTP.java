@@ -37,14 +37,28 @@ class Job implements Runnable {
     A Java application runs so long as there is at least one User thread alive; the User threads
     in the ThreadPool are alive, although all of them are 'waiting' (sleeping efficiently) if there
     are no jobs to execute.
+
+    With the command-line argument 'virtual' (Java 21 or later), the Jobs run instead on virtual
+    threads, at most 4 at a time:
+
+       java tpool.DriverTP virtual
+
+    Virtual threads are always Daemon threads; hence, the main-thread must wait for the Jobs to
+    finish, or else the program would exit before they had run. This version does exit.
  */
 class DriverTP {
     public static void main(String[ ] args) throws Exception {
+	boolean virtual = args.length > 0 && args[0].equals("virtual");
+
 	// A pool of 4 threads to handle 64 Jobs.
-	ThreadPool tp = new ThreadPool(4);
+	ThreadPool tp = virtual ? ThreadPool.newVirtualThreadPool(4) : new ThreadPool(4);
 	for (int i = 0; i < 64; i++) 
 	    tp.execute(new Job("Job" + i));
 
+	if (virtual) {
+	    tp.shutdown();
+	    tp.awaitTermination();
+	}
 	System.out.println("\n\n########## main-thread exiting...\n");
     }
 }
@@ -0,0 +1,40 @@
+package tpool;
+
+/**
+ * The queue of pending jobs in a ThreadPool's shared-queue mode. Implementations must
+ * be thread-safe: any number of threads may submit jobs, and every PoolWorker removes jobs.
+ *
+ * No method blocks. A full queue answers false to offer(), and an empty queue answers
+ * null to poll(); the ThreadPool itself decides what its workers and submitters do then.
+ * Two implementations come with the pool:
+ *
+ *  -- RingJobQueue, the default: a preallocated array-based ring buffer, which neither
+ *     locks nor allocates on either offer() or poll(), but holds a fixed number of jobs.
+ *
+ *  -- LinkedJobQueue: the original LinkedList guarded by a synchronized block, which grows
+ *     as needed but allocates a node per job and serializes every access on one monitor.
+ */
+public interface JobQueue {
+    boolean offer(Runnable job); // add at the tail: false if the queue is full
+    Runnable poll();             // remove from the head: null if the queue is empty
+    int size();                  // an estimate if other threads are busy with the queue
+    boolean isEmpty();
+
+    // Like poll(), but also report through enqueuedAt[0] when the job was offered, as a
+    // System.nanoTime() reading, so that the pool can measure how long the job waited.
+    // A queue that doesn't keep track reports 0, as this default does.
+    default Runnable poll(long[ ] enqueuedAt) {
+        enqueuedAt[0] = 0;
+        return poll();
+    }
+
+    // Add batch[from] onward, up to count jobs, in order: return how many were added,
+    // which is fewer than count only if the queue filled up. An implementation should
+    // publish the batch in one step; this default merely loops over offer().
+    default int offerAll(Runnable[ ] batch, int from, int count) {
+        int n = 0;
+        while (n < count && offer(batch[from + n]))
+            n++;
+        return n;
+    }
+}
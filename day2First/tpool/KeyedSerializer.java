@@ -0,0 +1,124 @@
+package tpool;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keyed ordered execution for ThreadPool.execute(key, job): jobs with the same key run one
+ * at a time, in the order submitted; jobs with different keys run in parallel on any of
+ * the pool's workers. Each key has a Serial, which holds the key's pending jobs:
+ *
+ *    key "acct-17" --> Serial: [ job3, job4 ]   pending = 2, a drainer in the pool
+ *    key "acct-42" --> Serial: [ ]              (retired: removed from the map)
+ *
+ * A Serial's 'pending' count decides who does what, with no lock:
+ *
+ *  -- A submitter bumps the count and then queues its job. If the count went from 0 to 1,
+ *     nobody is draining the Serial; hence, the submitter hands the Serial itself to the
+ *     pool as a job (the 'drainer').
+ *
+ *  -- The drainer runs the Serial's jobs one after another, decrementing the count after
+ *     each. At 0 it stops; the next submitter to find 0 starts a new drainer. So there's
+ *     never more than one drainer per key, and no lock is held while a job runs.
+ *
+ * To keep one busy key from hogging a worker, a drainer runs at most 'burst' jobs and then
+ * goes to the back of the pool's queue, letting other keys have a turn.
+ *
+ * An idle Serial is removed from the map, so that keys don't accumulate. The drainer that
+ * brings the count to 0 tries to 'retire' the Serial (count 0 to -1) and remove it; a
+ * submitter that finds a retired Serial retries with a fresh one. Jobs therefore never go to
+ * two Serials for the same key at once.
+ */
+class KeyedSerializer {
+    private static final int retired = -1;
+    private static final int burst = 32;
+
+    private final ThreadPool pool;
+    private final ConcurrentHashMap<Object, Serial> serials = new ConcurrentHashMap<Object, Serial>();
+
+    KeyedSerializer(ThreadPool pool) {
+	this.pool = pool;
+    }
+
+    void execute(Object key, Runnable job) {
+	while (true) {
+	    Serial serial = serials.get(key);
+	    if (serial == null) {
+		Serial fresh = new Serial(key);
+		serial = serials.putIfAbsent(key, fresh);
+		if (serial == null)
+		    serial = fresh;
+	    }
+	    if (serial.enqueue(job))
+		return;
+	    Thread.yield();  // retired, but not yet removed from the map: try again
+	}
+    }
+
+    // Is the job a drainer? The pool doesn't record a drainer's run, whose jobs record
+    // themselves. A DeadlineJobQueue wraps whatever it's offered, a drainer included.
+    static boolean isDrainer(Runnable job) {
+	if (job instanceof DeadlineJob)
+	    job = ((DeadlineJob) job).getJob();
+	return job instanceof Serial;
+    }
+
+    int size() {  // the number of keys with pending jobs, give or take
+	return serials.size();
+    }
+
+    // A queued job, with the time it was queued for the pool's queue-wait histogram.
+    private static final class Keyed {
+	final Runnable job;
+	final long queuedAt = System.nanoTime();
+
+	Keyed(Runnable job) {
+	    this.job = job;
+	}
+    }
+
+    private final class Serial implements Runnable {
+	private final Object key;
+	private final Queue<Keyed> jobs = new ConcurrentLinkedQueue<Keyed>();
+	private final AtomicInteger pending = new AtomicInteger(0);
+
+	Serial(Object key) {
+	    this.key = key;
+	}
+
+	// False if this Serial has been retired, in which case the job wasn't queued.
+	boolean enqueue(Runnable job) {
+	    int p;
+	    do {
+		p = pending.get();
+		if (p == retired)
+		    return false;
+	    } while (!pending.compareAndSet(p, p + 1));
+	    jobs.offer(new Keyed(job));
+	    if (p == 0)
+		pool.submit(this);   // nobody was draining: start a drainer
+	    return true;
+	}
+
+	// The drainer. The pool doesn't record this run itself; instead, each job run here
+	// is reported to the pool one by one, with its own queue wait and run time.
+	@Override
+	public void run() {
+	    for (int ran = 0; ran < burst; ran++) {
+		Keyed next;
+		while ((next = jobs.poll()) == null)
+		    Thread.yield();  // counted, but its submitter hasn't queued it just yet
+		// A failed job is counted there and mustn't stall the key's other jobs.
+		pool.runKeyedJob(next.job, next.queuedAt);
+		if (pending.decrementAndGet() == 0) {
+		    if (pending.compareAndSet(0, retired))
+			serials.remove(key, this);
+		    return;
+		}
+	    }
+	    pool.submit(this);  // more to do, but other keys get a turn first
+	}
+    }
+}
@@ -0,0 +1,145 @@
+package tpool;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A log-linear histogram of durations in nanoseconds, in the spirit of HdrHistogram:
+ * each power of 2 is split into 16 equal-width buckets, so any recorded value lands in a
+ * bucket no more than about 6% wider than the value itself, whether the value is 50 ns
+ * or 50 seconds. The whole range of a long fits in fewer than 1,000 buckets.
+ *
+ *    bucket    0..15    16..31    32..47   ...   16k..16k+15
+ *    values    0..15    16..31    32..63   ...   [16 << (k-1), 16 << k)   in 16 steps
+ *
+ * A histogram that a PoolWorker records into has exactly one writer, the worker itself;
+ * hence, record() needs no lock and no CAS, only an ordered store (lazySet) so that
+ * readers on other threads eventually see the counts. Recording never allocates. Readers
+ * build a snapshot by merging per-worker histograms into a fresh one with add(). A
+ * histogram shared by many writers must use recordConcurrent() instead.
+ */
+public final class LatencyHistogram {
+    private static final int subBits = 4;
+    private static final int subBuckets = 1 << subBits;              // 16
+    private static final int buckets = (64 - subBits + 1) * subBuckets;
+
+    private static final AtomicLongFieldUpdater<LatencyHistogram> totalUpdater =
+	AtomicLongFieldUpdater.newUpdater(LatencyHistogram.class, "total");
+    private static final AtomicLongFieldUpdater<LatencyHistogram> sumUpdater =
+	AtomicLongFieldUpdater.newUpdater(LatencyHistogram.class, "sum");
+    private static final AtomicLongFieldUpdater<LatencyHistogram> maxUpdater =
+	AtomicLongFieldUpdater.newUpdater(LatencyHistogram.class, "max");
+
+    private final AtomicLongArray counts = new AtomicLongArray(buckets);
+    private volatile long total = 0;
+    private volatile long sum = 0;
+    private volatile long max = 0;
+
+    // Single writer only: add one value.
+    public void record(long nanos) {
+	if (nanos < 0)
+	    nanos = 0;  // nanoTime() readings from different cores can be slightly out of step
+	int i = index(nanos);
+	counts.lazySet(i, counts.get(i) + 1);
+	sumUpdater.lazySet(this, sum + nanos);
+	if (nanos > max)
+	    maxUpdater.lazySet(this, nanos);
+	totalUpdater.lazySet(this, total + 1); // last: a reader that sees the count sees the bucket
+    }
+
+    // Any number of writers: add one value with atomic updates. Slower than record(),
+    // for histograms that no single thread owns.
+    public void recordConcurrent(long nanos) {
+	if (nanos < 0)
+	    nanos = 0;
+	counts.incrementAndGet(index(nanos));
+	sumUpdater.addAndGet(this, nanos);
+	long m;
+	while (nanos > (m = max) && !maxUpdater.compareAndSet(this, m, nanos))
+	    ;
+	totalUpdater.incrementAndGet(this);
+    }
+
+    // Fold another histogram's counts into this one (used to build snapshots).
+    public void add(LatencyHistogram other) {
+	for (int i = 0; i < buckets; i++) {
+	    long c = other.counts.get(i);
+	    if (c != 0)
+		counts.addAndGet(i, c);
+	}
+	synchronized(this) {
+	    total += other.total;
+	    sum += other.sum;
+	    if (other.max > max)
+		max = other.max;
+	}
+    }
+
+    public long count() {
+	return total;
+    }
+
+    public long max() {
+	return max;
+    }
+
+    public double mean() {
+	long n = total;
+	return (n == 0) ? 0 : (double) sum / n;
+    }
+
+    // The value at or below which the given fraction (e.g., 0.99) of the recorded values
+    // fall, reported as the top of its bucket. Zero if nothing has been recorded.
+    public long percentile(double fraction) {
+	long n = 0;
+	for (int i = 0; i < buckets; i++)
+	    n += counts.get(i);
+	if (n == 0)
+	    return 0;
+	long rank = (long) Math.ceil(fraction * n);
+	if (rank < 1)
+	    rank = 1;
+	long seen = 0;
+	for (int i = 0; i < buckets; i++) {
+	    seen += counts.get(i);
+	    if (seen >= rank)
+		return Math.min(highestValue(i), max);
+	}
+	return max;
+    }
+
+    @Override
+    public String toString() {
+	return String.format("n=%d p50=%s p99=%s p999=%s max=%s",
+			     count(), format(percentile(0.50)), format(percentile(0.99)),
+			     format(percentile(0.999)), format(max()));
+    }
+
+    // 850 ns, 12.3 us, 4.56 ms, 1.20 s
+    static String format(long nanos) {
+	if (nanos < 1_000L)
+	    return nanos + "ns";
+	if (nanos < 1_000_000L)
+	    return String.format("%.1fus", nanos / 1e3);
+	if (nanos < 1_000_000_000L)
+	    return String.format("%.2fms", nanos / 1e6);
+	return String.format("%.2fs", nanos / 1e9);
+    }
+
+    private static int index(long v) {
+	if (v < subBuckets)
+	    return (int) v;
+	int exp = 63 - Long.numberOfLeadingZeros(v);          // v is in [2^exp, 2^(exp+1))
+	int sub = (int) (v >>> (exp - subBits)) & (subBuckets - 1);
+	return (exp - subBits + 1) * subBuckets + sub;
+    }
+
+    private static long highestValue(int i) {
+	if (i < subBuckets)
+	    return i;
+	int exp = i / subBuckets + subBits - 1;
+	long width = 1L << (exp - subBits);
+	long lowest = (long) (subBuckets + i % subBuckets) << (exp - subBits);
+	return lowest + width - 1;
+    }
+}
@@ -0,0 +1,91 @@
+package tpool;
+
+import java.util.LinkedList;
+
+/**
+ * The ThreadPool's original job queue: an unbounded LinkedList, with every access
+ * synchronized on the list itself so that jobs are not simultaneously added and removed.
+ *
+ * This is simple and never full, but each offer() allocates a list node, and all submitters
+ * and workers take turns on the one monitor. Kept as an option for comparison with the
+ * RingJobQueue:
+ *
+ *    ThreadPool tpool = new ThreadPool(8, new LinkedJobQueue());
+ *
+ * Like the RingJobQueue, it records when each job was offered, for the pool's queue-wait
+ * histogram: the times go in a circular array of longs beside the list, in the same
+ * order as the jobs, and grow with it -- no boxed Long per job.
+ */
+public class LinkedJobQueue implements JobQueue {
+    private final LinkedList<Runnable> jobs = new LinkedList<Runnable>();
+    private long[ ] enqueueTimes = new long[64];  // guarded by 'jobs', as the list is
+    private int timesHead = 0;                   // where the oldest job's time is
+
+
+    @Override
+    public boolean offer(Runnable job) {
+	long now = System.nanoTime();
+	synchronized(jobs) {
+	    jobs.addLast(job); // add the job to the end of the queue
+	    addTime(now);
+	}
+	return true;           // never full
+    }
+
+    // The whole batch goes in under one acquisition of the lock.
+    @Override
+    public int offerAll(Runnable[ ] batch, int from, int count) {
+	long now = System.nanoTime();
+	synchronized(jobs) {
+	    for (int i = from; i < from + count; i++) {
+		jobs.addLast(batch[i]);
+		addTime(now);
+	    }
+	}
+	return count;
+    }
+
+    @Override
+    public Runnable poll() {
+	return poll(null);
+    }
+
+    @Override
+    public Runnable poll(long[ ] enqueuedAt) {
+	synchronized(jobs) {
+	    if (jobs.isEmpty())
+		return null;
+	    if (enqueuedAt != null)
+		enqueuedAt[0] = enqueueTimes[timesHead];
+	    timesHead = (timesHead + 1) % enqueueTimes.length;
+	    return jobs.removeFirst();
+	}
+    }
+
+    // With the lock on 'jobs' held, and the job already added to the list.
+    private void addTime(long time) {
+	int n = jobs.size();
+	if (n > enqueueTimes.length) {        // full: double, oldest first
+	    long[ ] bigger = new long[2 * enqueueTimes.length];
+	    for (int i = 0; i < n - 1; i++)
+		bigger[i] = enqueueTimes[(timesHead + i) % enqueueTimes.length];
+	    enqueueTimes = bigger;
+	    timesHead = 0;
+	}
+	enqueueTimes[(timesHead + n - 1) % enqueueTimes.length] = time;
+    }
+
+    @Override
+    public int size() {
+	synchronized(jobs) {
+	    return jobs.size();
+	}
+    }
+
+    @Override
+    public boolean isEmpty() {
+	synchronized(jobs) {
+	    return jobs.isEmpty();
+	}
+    }
+}
@@ -0,0 +1,60 @@
+package tpool;
+
+/**
+ * A snapshot of a ThreadPool's instruments, taken by ThreadPool.getStats():
+ *
+ *  -- queueWait: for each job, the time from its submission to the start of its run()
+ *  -- runTime:   for each job, the time its run() took, whether it finished or threw
+ *  -- the gauges: queue depth and pool size at the moment of the snapshot, and the
+ *     workers' utilization -- the fraction of worker-time spent running jobs -- since
+ *     the pool started. (Virtual threads with no cap on concurrency have no fixed
+ *     worker-time; theirs is the time they spent running.)
+ *
+ * The histograms are merged from the workers' own histograms when the snapshot is taken,
+ * so the snapshot doesn't change afterwards. Jobs that waited in a queue that doesn't
+ * record submission times (a JobQueue that keeps poll(long[ ])'s default) have no
+ * queueWait entry. A keyed job, from execute(key, job), counts as one job of its own: its
+ * queueWait runs from execute() to the start of its run(), and the drainer that runs a
+ * key's jobs in turn isn't counted at all.
+ */
+public final class PoolStats {
+    private final LatencyHistogram queueWait;
+    private final LatencyHistogram runTime;
+    private final long completedJobs;
+    private final long failedJobs;
+    private final int queueDepth;
+    private final int poolSize;
+    private final double utilization;
+    private final Throwable lastFailure;
+
+    PoolStats(LatencyHistogram queueWait, LatencyHistogram runTime,
+              long completedJobs, long failedJobs, int queueDepth, int poolSize,
+              double utilization, Throwable lastFailure) {
+        this.queueWait = queueWait;
+        this.runTime = runTime;
+        this.completedJobs = completedJobs;
+        this.failedJobs = failedJobs;
+        this.queueDepth = queueDepth;
+        this.poolSize = poolSize;
+        this.utilization = utilization;
+        this.lastFailure = lastFailure;
+    }
+
+    public LatencyHistogram getQueueWait()  { return queueWait; }
+    public LatencyHistogram getRunTime()    { return runTime; }
+    public long getCompletedJobs()          { return completedJobs; }  // including failed jobs
+    public long getFailedJobs()             { return failedJobs; }     // run() threw a RuntimeException
+    public int getQueueDepth()              { return queueDepth; }
+    public int getPoolSize()                { return poolSize; }
+    public double getUtilization()          { return utilization; }    // 0.0 through 1.0
+    public Throwable getLastFailure()       { return lastFailure; }    // null if no job has failed
+
+    @Override
+    public String toString() {
+        return String.format("jobs=%d failed=%d depth=%d workers=%d utilization=%.1f%%%n" +
+                             "  queue wait: %s%n" +
+                             "  run time:   %s",
+                             completedJobs, failedJobs, queueDepth, poolSize, utilization * 100,
+                             queueWait, runTime);
+    }
+}
@@ -0,0 +1,69 @@
+package tpool;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A 'submission storm' benchmark of the ThreadPool's two shared job queues: the
+ * lock-free RingJobQueue (the default) and the original LinkedList-plus-monitor queue,
+ * LinkedJobQueue.
+ *
+ * Several submitter threads each fire off a burst of tiny jobs as fast as they can, so
+ * that the cost of the queue itself -- the lock handoffs, and a list node per job --
+ * dominates the cost of the jobs.
+ *
+ * Sample usage (the arguments are optional):
+ *
+ *    java tpool.QueueBench [workers] [submitters] [jobs per submitter]
+ */
+public class QueueBench {
+    private static final int rounds = 5;
+
+    public static void main(String[ ] args) throws Exception {
+	int workers    = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+	int submitters = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+	int jobs       = (args.length > 2) ? Integer.parseInt(args[2]) : 250_000;
+
+	System.out.printf("%d workers, %d submitters x %d jobs%n", workers, submitters, jobs);
+	double ring = 0, linked = 0;
+	for (int r = 0; r < rounds; r++) { // the first rounds double as JIT warm-up
+	    ring   = Math.max(ring,   runOnce(new RingJobQueue(), workers, submitters, jobs));
+	    linked = Math.max(linked, runOnce(new LinkedJobQueue(), workers, submitters, jobs));
+	}
+	System.out.printf("RingJobQueue:   %12.0f jobs/s%n", ring);
+	System.out.printf("LinkedJobQueue: %12.0f jobs/s%n", linked);
+    }
+
+    private static double runOnce(JobQueue queue, int workers, int submitters, final int jobs)
+	throws Exception {
+	final ThreadPool pool = new ThreadPool(workers, queue);
+	final LongAdder done = new LongAdder();
+	final Runnable job = new Runnable() {
+		@Override
+		public void run() { done.increment(); }
+	    };
+	final long total = (long) submitters * jobs;
+
+	Thread[ ] threads = new Thread[submitters];
+	for (int i = 0; i < submitters; i++)
+	    threads[i] = new Thread() {
+		    @Override
+		    public void run() {
+			for (int k = 0; k < jobs; k++)
+			    pool.execute(job);
+		    }
+		};
+
+	long start = System.nanoTime();
+	for (Thread t : threads)
+	    t.start();
+	for (Thread t : threads)
+	    t.join();
+	while (done.sum() < total)
+	    Thread.yield();
+	long elapsed = System.nanoTime() - start;
+
+	pool.shutdown();
+	pool.awaitTermination();
+	return total * 1e9 / elapsed;
+    }
+}
@@ -0,0 +1,176 @@
+package tpool;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A bounded, lock-free, multi-producer/multi-consumer job queue: an array of slots
+ * used as a ring, in the style of Dmitry Vyukov's bounded MPMC queue. All of the memory
+ * is allocated up front, so offer() and poll() neither lock nor allocate.
+ *
+ * Each slot carries a sequence number that says whose turn it is:
+ *
+ *    sequence == position          the slot is free for the producer claiming 'position'
+ *    sequence == position + 1      the slot holds a job for the consumer claiming 'position'
+ *
+ * A producer claims a position by a compareAndSet on 'tail', stores its job, and then
+ * bumps the slot's sequence to hand the slot to a consumer. A consumer claims a position by
+ * a compareAndSet on 'head', takes the job, and then bumps the sequence by a full lap of the
+ * ring to hand the slot back to a producer one lap later. There is no lock, and the only
+ * contention is on the two counters.
+ *
+ * Producers hammer 'tail' and consumers hammer 'head'. If the two counters shared a
+ * cache line, every offer() would slow down every poll(), and vice versa ('false sharing').
+ * The padding classes below keep each counter on a cache line of its own: HotSpot lays
+ * out a superclass's fields before a subclass's fields.
+ *
+ * Alongside each job, the queue keeps the System.nanoTime() at which the job was offered,
+ * in a preallocated array of longs, so that the pool can measure queue wait without
+ * wrapping each job in a timestamped object.
+ */
+public class RingJobQueue extends RingJobQueuePad2 implements JobQueue {
+    public static final int defaultCapacity = 4096;
+
+    private static final AtomicLongFieldUpdater<RingJobQueueTail> tailUpdater =
+	AtomicLongFieldUpdater.newUpdater(RingJobQueueTail.class, "tail");
+    private static final AtomicLongFieldUpdater<RingJobQueueHead> headUpdater =
+	AtomicLongFieldUpdater.newUpdater(RingJobQueueHead.class, "head");
+
+    private final int mask;                 // capacity - 1, capacity a power of 2
+    private final Runnable[ ] jobs;         // published by the volatile write to the sequence
+    private final long[ ] enqueueTimes;     // ditto
+    private final AtomicLongArray sequences;
+
+    public RingJobQueue() {
+	this(defaultCapacity);
+    }
+
+    // The capacity is rounded up to a power of 2 so that a position maps to a slot by masking.
+    public RingJobQueue(int capacity) {
+	if (capacity < 2 || capacity > (1 << 30))
+	    throw new IllegalArgumentException("capacity must be from 2 through 2^30");
+	int size = Integer.highestOneBit(capacity - 1) << 1;
+	mask = size - 1;
+	jobs = new Runnable[size];
+	enqueueTimes = new long[size];
+	sequences = new AtomicLongArray(size);
+	for (int i = 0; i < size; i++)
+	    sequences.set(i, i); // every slot starts out free for the first lap
+    }
+
+    public int capacity() {
+	return mask + 1;
+    }
+
+    @Override
+    public boolean offer(Runnable job) {
+	long now = System.nanoTime();
+	long pos = tail;
+	while (true) {
+	    int slot = (int) (pos & mask);
+	    long diff = sequences.get(slot) - pos;
+	    if (diff == 0) {                    // slot is free: try to claim the position
+		if (tailUpdater.compareAndSet(this, pos, pos + 1)) {
+		    jobs[slot] = job;
+		    enqueueTimes[slot] = now;
+		    sequences.set(slot, pos + 1); // hand the slot to a consumer
+		    return true;
+		}
+		pos = tail;                     // another producer got there first
+	    }
+	    else if (diff < 0)                  // slot still holds last lap's job: full
+		return false;
+	    else
+		pos = tail;                     // fell behind other producers: catch up
+	}
+    }
+
+    // Claim a run of positions for the whole batch with a single CAS on 'tail', then fill
+    // the slots in order. Each claimed position lies within a lap of 'head', so the consumer
+    // of the previous lap has at least claimed the slot; at worst, this producer waits for
+    // that consumer to finish handing the slot back.
+    @Override
+    public int offerAll(Runnable[ ] batch, int from, int count) {
+	long now = System.nanoTime();
+	while (true) {
+	    long pos = tail;
+	    long free = head + capacity() - pos;  // a stale head only understates the room
+	    if (free <= 0)
+		return 0;
+	    int n = (int) Math.min(count, free);
+	    if (!tailUpdater.compareAndSet(this, pos, pos + n))
+		continue;                       // another producer got there first
+	    for (int i = 0; i < n; i++) {
+		long p = pos + i;
+		int slot = (int) (p & mask);
+		while (sequences.get(slot) != p)
+		    Thread.yield();              // last lap's consumer is mid-handback
+		jobs[slot] = batch[from + i];
+		enqueueTimes[slot] = now;
+		sequences.set(slot, p + 1);
+	    }
+	    return n;
+	}
+    }
+
+    @Override
+    public Runnable poll() {
+	return poll(null);
+    }
+
+    @Override
+    public Runnable poll(long[ ] enqueuedAt) {
+	long pos = head;
+	while (true) {
+	    int slot = (int) (pos & mask);
+	    long diff = sequences.get(slot) - (pos + 1);
+	    if (diff == 0) {                    // slot holds a job: try to claim the position
+		if (headUpdater.compareAndSet(this, pos, pos + 1)) {
+		    Runnable job = jobs[slot];
+		    if (enqueuedAt != null)
+			enqueuedAt[0] = enqueueTimes[slot];
+		    jobs[slot] = null;          // don't keep a finished job reachable
+		    sequences.set(slot, pos + mask + 1); // hand the slot back to producers
+		    return job;
+		}
+		pos = head;
+	    }
+	    else if (diff < 0)                  // nothing published here yet: empty
+		return null;
+	    else
+		pos = head;
+	}
+    }
+
+    @Override
+    public int size() {
+	long n = tail - head;
+	return (n <= 0) ? 0 : (int) Math.min(n, capacity());
+    }
+
+    @Override
+    public boolean isEmpty() {
+	return tail == head;
+    }
+}
+
+// The padding classes: 7 longs on each side of a counter fill out a 64-byte cache line.
+abstract class RingJobQueuePad0 {
+    long p00, p01, p02, p03, p04, p05, p06;
+}
+
+abstract class RingJobQueueTail extends RingJobQueuePad0 {
+    volatile long tail = 0; // next position for a producer
+}
+
+abstract class RingJobQueuePad1 extends RingJobQueueTail {
+    long p10, p11, p12, p13, p14, p15, p16;
+}
+
+abstract class RingJobQueueHead extends RingJobQueuePad1 {
+    volatile long head = 0; // next position for a consumer
+}
+
+abstract class RingJobQueuePad2 extends RingJobQueueHead {
+    long p20, p21, p22, p23, p24, p25, p26;
+}
@@ -0,0 +1,79 @@
+package tpool;
+
+/**
+ * The SizeController sizes an elastic ThreadPool by 'hill climbing': it treats
+ * throughput (completed jobs per second) as a function of pool size, and keeps stepping
+ * in whichever direction makes throughput go up.
+ *
+ * Every sampling interval, the controller looks at two numbers:
+ *
+ *  -- the queue depth: if no jobs are waiting, more workers can't help, and the
+ *     controller leaves surplus workers to retire through the keep-alive timeout.
+ *
+ *  -- the throughput since the last sample: if the last step raised throughput by
+ *     more than the noise tolerance, take another step in the same direction; if not,
+ *     step the other way.
+ *
+ * For jobs that mostly wait (sleep, I/O), adding workers keeps paying off, and the pool
+ * climbs toward its maximum size. For jobs that mostly compute, throughput levels off once
+ * the cores are busy, and the pool settles around that size, stepping up and down by a
+ * worker or so as it keeps probing for the peak.
+ *
+ * The controller is a daemon thread: it must not by itself keep an application alive.
+ */
+final class SizeController extends Thread {
+    private static final long sampleMillis = 500;  // how often to sample the pool
+    private static final double tolerance = 0.05;  // throughput changes below 5% count as noise
+
+    private final ThreadPool pool;
+    private int direction = +1;           // +1 grow, -1 shrink
+    private double lastThroughput = 0;    // jobs per second in the previous interval
+    private long lastCompleted = 0;
+
+    SizeController(ThreadPool pool) {
+	this.pool = pool;
+	setDaemon(true);
+	setName("ThreadPool-SizeController");
+    }
+
+    @Override
+    public void run() {
+	long last = System.nanoTime();
+	while (!pool.isShutdown()) {
+	    try {
+		Thread.sleep(sampleMillis);
+	    }
+	    catch (InterruptedException e) { // shutdown() interrupts the controller
+		return;
+	    }
+	    long now = System.nanoTime();
+	    sample((now - last) / 1e9);
+	    last = now;
+	}
+    }
+
+    private void sample(double seconds) {
+	long completed = pool.getCompletedJobCount();
+	double throughput = (completed - lastCompleted) / seconds;
+	lastCompleted = completed;
+
+	int size = pool.getPoolSize();
+	if (pool.getQueueDepth() == 0) { // no backlog: nothing to gain by growing
+	    direction = +1;              // when a backlog returns, try growing first
+	    lastThroughput = throughput;
+	    return;
+	}
+
+	// Did the previous step pay off? If not, head back the other way.
+	if (throughput <= lastThroughput * (1 + tolerance))
+	    direction = -direction;
+	lastThroughput = throughput;
+
+	// Step by about a quarter of the pool so that a large pool moves quickly.
+	int step = Math.max(1, size / 4);
+	int target = size + direction * step;
+	if (target < pool.getCoreSize() || target > pool.getMaxSize())
+	    direction = -direction;      // bounce off the limits
+	pool.resize(target);
+    }
+}
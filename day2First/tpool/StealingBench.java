@@ -0,0 +1,93 @@
+package tpool;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A rough benchmark of the ThreadPool's two modes -- one shared queue versus
+ * per-worker work-stealing deques -- at pool sizes of 1 through 64 workers.
+ *
+ * The workload is many short jobs. Each 'root' job is submitted from the main-thread
+ * and, when run, submits a few 'child' jobs of its own, as a divide-and-conquer job
+ * would. In shared mode, every submission and every removal goes through the one
+ * monitor on the job queue; in work-stealing mode, a child job goes onto its parent's
+ * worker deque, and idle workers steal.
+ *
+ * Sample usage (the arguments are optional):
+ *
+ *    java tpool.StealingBench [root jobs] [children per root] [work units per job]
+ *
+ * The numbers are jobs per second, best of a few rounds. As with any micro-benchmark,
+ * the absolute numbers depend heavily on the machine: on a machine with few cores,
+ * the two modes differ little, as the monitor is rarely contended.
+ */
+public class StealingBench {
+    private static final int[ ] poolSizes = {1, 2, 4, 8, 16, 32, 64};
+    private static final int rounds = 3;
+
+    private static volatile long sink; // keeps the JIT from discarding the 'work'
+
+    public static void main(String[ ] args) throws Exception {
+	int roots    = (args.length > 0) ? Integer.parseInt(args[0]) : 20_000;
+	int children = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+	int work     = (args.length > 2) ? Integer.parseInt(args[2]) : 200;
+
+	System.out.printf("%d root jobs x %d children, %d work units per job%n", roots, children, work);
+	System.out.printf("%8s %18s %18s %8s%n", "workers", "shared (jobs/s)", "stealing (jobs/s)", "ratio");
+
+	runOnce(4, false, roots, children, work); // warm up the JIT for both code paths
+	runOnce(4, true, roots, children, work);
+
+	for (int n : poolSizes) {
+	    double shared = 0, stealing = 0;
+	    for (int r = 0; r < rounds; r++) {
+		shared   = Math.max(shared,   runOnce(n, false, roots, children, work));
+		stealing = Math.max(stealing, runOnce(n, true,  roots, children, work));
+	    }
+	    System.out.printf("%8d %18.0f %18.0f %8.2f%n", n, shared, stealing, stealing / shared);
+	}
+    }
+
+    // Run the workload on a fresh pool; return the jobs completed per second.
+    private static double runOnce(int workers, boolean workStealing,
+				  int roots, final int children, final int work) throws Exception {
+	final ThreadPool pool = new ThreadPool(workers, workStealing);
+	final LongAdder done = new LongAdder(); // striped: the counter itself mustn't be the bottleneck
+	final long total = (long) roots * (children + 1);
+
+	final Runnable child = new Runnable() {
+		@Override
+		public void run() {
+		    spin(work);
+		    done.increment();
+		}
+	    };
+	Runnable root = new Runnable() {
+		@Override
+		public void run() {
+		    for (int i = 0; i < children; i++)
+			pool.execute(child); // from a worker: local deque in work-stealing mode
+		    spin(work);
+		    done.increment();
+		}
+	    };
+
+	long start = System.nanoTime();
+	for (int i = 0; i < roots; i++)
+	    pool.execute(root);
+	while (done.sum() < total)
+	    Thread.sleep(1);
+	long elapsed = System.nanoTime() - start;
+
+	pool.shutdown();
+	pool.awaitTermination();
+	return total * 1e9 / elapsed;
+    }
+
+    private static void spin(int units) {
+	long x = units;
+	for (int i = 0; i < units; i++)
+	    x = x * 6364136223846793005L + 1442695040888963407L;
+	if (x == 0)
+	    sink = x; // practically never: a shared write per job would itself be contended
+    }
+}
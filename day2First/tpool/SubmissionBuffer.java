@@ -0,0 +1,58 @@
+package tpool;
+
+import java.util.Arrays;
+
+/**
+ * A SubmissionBuffer collects jobs from one submitting thread and hands them to its
+ * ThreadPool in batches through executeAll(...). A thread that submits thousands of jobs
+ * per 'tick' thus pays for one queue publication and one round of wakeups per batch,
+ * rather than per job:
+ *
+ *    SubmissionBuffer buffer = tpool.newSubmissionBuffer(256);
+ *    for (Runnable job : jobsForThisTick)
+ *        buffer.add(job);  // hands over a batch whenever 256 jobs have piled up
+ *    buffer.flush();       // hands over whatever is left
+ *
+ * A SubmissionBuffer is _not_ thread-safe: it belongs to the one thread that fills it,
+ * which is what lets add() be a plain array store. Jobs in the buffer are not visible to
+ * the pool's workers until the buffer is flushed, so a buffer that's only partly full
+ * should be flushed at the end of each tick (or closed, which flushes).
+ */
+public final class SubmissionBuffer implements AutoCloseable {
+    private final ThreadPool pool;
+    private final Runnable[ ] buffer;
+    private int count = 0;
+
+    SubmissionBuffer(ThreadPool pool, int capacity) {
+	if (capacity < 1)
+	    throw new IllegalArgumentException("capacity must be at least 1");
+	this.pool = pool;
+	this.buffer = new Runnable[capacity];
+    }
+
+    public void add(Runnable job) {
+	if (job == null)
+	    throw new NullPointerException();
+	buffer[count++] = job;
+	if (count == buffer.length)
+	    flush();
+    }
+
+    // Hand every buffered job to the pool.
+    public void flush() {
+	if (count == 0)
+	    return;
+	pool.executeAll(buffer, 0, count);
+	Arrays.fill(buffer, 0, count, null); // don't keep submitted jobs reachable
+	count = 0;
+    }
+
+    public int size() {
+	return count;
+    }
+
+    @Override
+    public void close() {
+	flush();
+    }
+}
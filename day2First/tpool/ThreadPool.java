@@ -21,86 +21,936 @@ package tpool;
  *    tpool.execute(job2); // ditto
  *    ...
  *
+ * An idle worker waits for a job as its pool's WaitStrategy dictates: spin, yield,
+ * park, or block in wait() on a monitor. The choice trades dispatch latency against
+ * CPU burned while idle:
+ *
+ *    ThreadPool tpool = new ThreadPool(4, false, WaitStrategy.BUSY_SPIN); // 4 spinning threads
+ *
  * For ReentrantLocks, as against synchronized blocks, the wait/notify methods are
- * bundled into the java.util.concurrent.locks.Condition interface. Accordingly, this
- * thread pool implementation would replace the wait/notify constructs with
- * their Condition counterparts await/signal, if ReentrantLocks were used in place of
- * synchronized blocks.
+ * bundled into the java.util.concurrent.locks.Condition interface. Accordingly, the
+ * BLOCK strategy would replace the wait/notify constructs with their Condition
+ * counterparts await/signal, if ReentrantLocks were used in place of synchronized blocks.
+ *
+ * By default, all jobs go through one shared JobQueue. The default queue is a RingJobQueue,
+ * a preallocated ring buffer that submitters and workers share without locking; the
+ * original LinkedList guarded by a synchronized block is still available for comparison:
+ *
+ *    ThreadPool tpool = new ThreadPool(8, new LinkedJobQueue());
+ *
+ * A DeadlineJobQueue replaces first-in-first-out with earliest-deadline-first, so that jobs
+ * submitted with a high priority, or a near deadline, overtake bulk jobs in the same pool:
+ *
+ *    ThreadPool tpool = new ThreadPool(8, new DeadlineJobQueue());
+ *    tpool.execute(urgentJob, DeadlineJob.maxPriority);
+ *
+ * Jobs submitted with a key run one at a time, in order, per key, but in parallel across
+ * keys -- per-account serialization, say, without a Banker thread per account:
+ *
+ *    tpool.execute(accountId, update); // never concurrent with another update to accountId
+ *
+ * Jobs can also wait for their time without tying up a thread, as a Thread.sleep() would:
+ *
+ *    tpool.schedule(job, 250, TimeUnit.MILLISECONDS);
+ *    tpool.scheduleAtFixedRate(heartbeat, 0, 1, TimeUnit.SECONDS);
+ *
+ * With many workers and short jobs, even a lock-free shared queue has a hot spot: every
+ * add and every remove hits the same head or tail counter. A pool can instead be built in
+ * 'work-stealing' mode:
+ *
+ *    ThreadPool tpool = new ThreadPool(16, true); // 16 threads, work-stealing
+ *
+ * In this mode each PoolWorker owns a WorkStealingDeque. A job submitted by one of the
+ * pool's own workers (e.g., a job that splits off subjobs) goes onto that worker's deque;
+ * a job submitted from outside the pool goes to the workers round-robin. A worker with
+ * nothing to do steals from its peers, and parks (sleeps) only if there is nothing to steal.
+ * The StealingBench program compares the two modes.
+ *
+ * A shared-mode pool can also be 'elastic', with a core size and a maximum size:
+ *
+ *    ThreadPool tpool = new ThreadPool(4, 64, 30_000); // 4 to 64 threads, 30-second keep-alive
+ *
+ * A SizeController thread then samples the pool's throughput (completed jobs per second)
+ * and queue depth, and 'hill-climbs' toward the size with the best throughput: it keeps
+ * adding (or removing) workers while that helps, and reverses when it hurts. Jobs that mostly
+ * wait, such as DriverTP's sleeping Job, drive the pool toward its maximum; jobs that mostly
+ * compute keep it near the number of cores. A worker beyond the core size that sits idle
+ * for the keep-alive time retires.
+ *
+ * Every worker records, for each job it runs, how long the job waited in a queue and how
+ * long it ran, into histograms of its own. A call to getStats() merges them into a
+ * PoolStats snapshot, with percentiles and the queue-depth and utilization gauges:
+ *
+ *    System.out.println(tpool.getStats()); // e.g., queue wait: n=64 p50=1.2us p99=40.1us ...
+ *
+ * Finally, on Java 21 or later, a pool can do without PoolWorkers altogether and run each
+ * job on a virtual thread of its own, optionally with a cap on how many jobs run at once:
+ *
+ *    ThreadPool tpool = ThreadPool.newVirtualThreadPool(1000); // at most 1,000 jobs at a time
+ *
+ * A job that blocks, such as DriverTP's sleeping Job, then ties up only its cheap virtual
+ * thread, not one of a handful of platform threads. Virtual threads are daemon threads:
+ * a program must awaitTermination() if it's to wait for its jobs to finish.
 */
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 // Construct a pool and then use the pool to execute Runnable jobs.
 final public class ThreadPool {
-    private final PoolWorker[ ] poolWorkers;     // workers: fixed size pool
-    private final LinkedList<Runnable> jobQueue; // jobs: as many as you like
+    private volatile PoolWorker[ ] poolWorkers;  // workers: replaced, never modified, on a resize
+    private final JobQueue jobQueue;             // jobs: shared mode only
+    private final boolean workStealing;          // per-worker deques rather than one shared queue
+    private final WaitStrategy waitStrategy;     // what an idle worker does
+
+    private final int coreSize;                  // the pool never shrinks below this...
+    private final int maxSize;                   // ...nor grows above this
+    private final long keepAliveNanos;           // idle time before a worker beyond coreSize retires
+    private final AtomicInteger liveWorkers = new AtomicInteger(0);
+    private volatile int targetSize;             // set by the SizeController
+    private final Object resizeLock = new Object();
+    private final SizeController sizeController; // null for a fixed-size pool
+    private final VirtualLauncher virtual;       // null unless jobs run on virtual threads
+    private final KeyedSerializer keyed = new KeyedSerializer(this); // for execute(key, job)
+    private volatile TimingWheel timingWheel = null;                 // started by the first schedule()
+
+    private final LongAdder completedJobs = new LongAdder();          // striped: cheap to bump from every worker
+    private final LongAdder failedJobs = new LongAdder();
+    private volatile Throwable lastFailure = null;
+    private final LatencyHistogram retiredWaits = new LatencyHistogram(); // retired workers' records,
+    private final LatencyHistogram retiredRuns = new LatencyHistogram();  // guarded by resizeLock
+    private long retiredBusyNanos = 0, retiredAliveNanos = 0;            // ditto
+    private final AtomicInteger nextWorker = new AtomicInteger(0);    // round-robin for outside submissions
+    private final AtomicInteger parkedWorkers = new AtomicInteger(0); // how many workers are parked for good
+    private final Object idleMonitor = new Object();                  // BLOCK: workers wait() here
+    private volatile int blockedWorkers = 0;                          // BLOCK: how many, changed under idleMonitor
+    private volatile boolean shutdown = false;
+
+    private static final int inboxCapacity = 1024;  // work-stealing mode: per-worker inbox
 
     public ThreadPool(int n) {
-        jobQueue = new LinkedList<Runnable>();
-        poolWorkers = new PoolWorker[n];
-	
+        this(n, false);
+    }
+
+    public ThreadPool(int n, boolean workStealing) {
+        this(n, workStealing, WaitStrategy.SPIN_PARK);
+    }
+
+    public ThreadPool(int n, boolean workStealing, WaitStrategy waitStrategy) {
+        this(n, n, 0, workStealing ? null : new RingJobQueue(), workStealing, waitStrategy);
+    }
+
+    // Shared mode with a queue of the client's choosing.
+    public ThreadPool(int n, JobQueue jobQueue) {
+        this(n, n, 0, Objects.requireNonNull(jobQueue), false, WaitStrategy.SPIN_PARK);
+    }
+
+    // An elastic pool: shared mode, from coreSize to maxSize workers.
+    public ThreadPool(int coreSize, int maxSize, long keepAliveMillis) {
+        this(coreSize, maxSize, keepAliveMillis, new RingJobQueue());
+    }
+
+    public ThreadPool(int coreSize, int maxSize, long keepAliveMillis, JobQueue jobQueue) {
+        this(coreSize, maxSize, keepAliveMillis, jobQueue, WaitStrategy.SPIN_PARK);
+    }
+
+    public ThreadPool(int coreSize, int maxSize, long keepAliveMillis,
+                      JobQueue jobQueue, WaitStrategy waitStrategy) {
+        this(coreSize, maxSize, keepAliveMillis, Objects.requireNonNull(jobQueue), false, waitStrategy);
+    }
+
+    // A pool that runs each job on a virtual thread of its own, with at most maxConcurrency
+    // jobs running at a time (0 for no limit). Virtual threads need Java 21 or later; on an
+    // earlier Java, this throws an UnsupportedOperationException.
+    public static ThreadPool newVirtualThreadPool(int maxConcurrency) {
+        if (maxConcurrency < 0)
+            throw new IllegalArgumentException("maxConcurrency must be 0 (no limit) or more");
+        return new ThreadPool(maxConcurrency, virtualThreadFactory());
+    }
+
+    private ThreadPool(int coreSize, int maxSize, long keepAliveMillis,
+                       JobQueue jobQueue, boolean workStealing, WaitStrategy waitStrategy) {
+        this(coreSize, maxSize, keepAliveMillis, jobQueue, workStealing, waitStrategy, null);
+    }
+
+    private ThreadPool(int maxConcurrency, ThreadFactory virtualThreads) {
+        this(0, maxConcurrency, 0, null, false, WaitStrategy.BLOCK, virtualThreads);
+    }
+
+    private ThreadPool(int coreSize, int maxSize, long keepAliveMillis, JobQueue jobQueue,
+                       boolean workStealing, WaitStrategy waitStrategy, ThreadFactory virtualThreads) {
+        if (virtualThreads == null && (coreSize < 1 || maxSize < coreSize || keepAliveMillis < 0))
+            throw new IllegalArgumentException("need 1 <= coreSize <= maxSize and keepAliveMillis >= 0");
+        this.virtual = (virtualThreads == null) ? null : new VirtualLauncher(virtualThreads, maxSize);
+        this.workStealing = workStealing;
+        this.waitStrategy = Objects.requireNonNull(waitStrategy);
+        this.jobQueue = jobQueue;
+        this.coreSize = coreSize;
+        this.maxSize = maxSize;
+        this.keepAliveNanos = keepAliveMillis * 1_000_000L;
+        this.targetSize = coreSize;
+
 	// Create and start the threads, amortizing the cost over the
-	// lifetime of the pool.
-	for (PoolWorker pw : poolWorkers) {
-            pw = new PoolWorker();
+	// lifetime of the pool. All of the workers are created before any is
+	// started because, in work-stealing mode, a worker may steal from any peer.
+        PoolWorker[ ] workers = new PoolWorker[coreSize];
+	for (int i = 0; i < coreSize; i++)
+	    workers[i] = new PoolWorker();
+        poolWorkers = workers;
+        liveWorkers.set(coreSize);
+	for (PoolWorker pw : workers)
             pw.start();
+
+        // Only a pool with room to grow needs a controller. In work-stealing mode, the
+        // workers steal from a fixed set of peers; hence, such a pool has a fixed size.
+        if (maxSize > coreSize && !workStealing && virtual == null) {
+            sizeController = new SizeController(this);
+            sizeController.start();
         }
+        else
+            sizeController = null;
     }
     
     // API method: a ThreadPool client creates a pool, and then 
     // invokes execute on a job to be run.
     //
+    // In shared mode, a bounded queue such as the RingJobQueue can fill up. A submitter
+    // from outside the pool then yields until a worker has made room; one of the pool's
+    // own workers instead runs the job itself, as all of the workers might otherwise be
+    // waiting on a full queue that only they can drain.
+    public void execute(Runnable job) {
+        if (job == null)
+            throw new NullPointerException();
+        if (shutdown)
+            throw new IllegalStateException("pool has been shut down");
+        submit(job);
+    }
+
+    // execute() without the shutdown check, for a job that a job already accepted passes
+    // on to the pool, such as a KeyedSerializer's drainer: it must run even after shutdown().
+    void submit(Runnable job) {
+        if (virtual != null) {
+            virtual.launch(job);
+            return;
+        }
+        if (workStealing) {
+            PoolWorker self = currentWorker();
+            if (self != null)          // submitted by one of our own workers: keep it local
+                self.deque.push(job);
+            else                       // submitted from outside: spread round-robin
+                self = offerToInbox(job);
+            wakeOne(self);
+            return;
+        }
+
+        while (!jobQueue.offer(job)) {  // full queue: back-pressure rather than a lost job
+            PoolWorker self = currentWorker();
+            if (self != null) {
+                self.runJob(job, 0);
+                return;
+            }
+            Thread.yield();
+        }
+        wakeOne(null);
+    }
+
+    // API methods: submit a job with a priority (DeadlineJob.minPriority through maxPriority)
+    // or with a deadline, a System.nanoTime() by which the job must start or else be dropped.
+    // A pool built on a DeadlineJobQueue runs such jobs earliest-deadline-first; any other
+    // pool runs them in its usual order, but still drops a job whose deadline has passed.
+    // The returned DeadlineJob reports whether the job was dropped.
+    public DeadlineJob execute(Runnable job, int priority) {
+        DeadlineJob dj = DeadlineJob.withPriority(job, priority);
+        execute(dj);
+        return dj;
+    }
+
+    public DeadlineJob executeBefore(Runnable job, long deadlineNanoTime) {
+        DeadlineJob dj = DeadlineJob.withDeadline(job, deadlineNanoTime);
+        execute(dj);
+        return dj;
+    }
+
+    // API method: jobs submitted with equal keys (equals/hashCode) run one at a time, in
+    // the order submitted, although not necessarily on the same worker; jobs with different
+    // keys run in parallel. For instance, with account ids as the keys, the updates to any
+    // one account are serialized without a lock and without a thread per account. See
+    // KeyedSerializer.
+    public void execute(Object key, Runnable job) {
+        if (key == null || job == null)
+            throw new NullPointerException();
+        if (shutdown)
+            throw new IllegalStateException("pool has been shut down");
+        keyed.execute(key, job);
+    }
+
+    // Work-stealing mode: put an outside job into the next worker's inbox, or, if that
+    // inbox is full, the next one after that. Returns the worker whose inbox took the job.
+    private PoolWorker offerToInbox(Runnable job) {
+        PoolWorker[ ] workers = poolWorkers;
+        int k = nextWorker.getAndIncrement() & Integer.MAX_VALUE;
+        while (true) {
+            for (int i = 0; i < workers.length; i++) {
+                PoolWorker pw = workers[(k + i) % workers.length];
+                if (pw.inbox.offer(job))
+                    return pw;
+            }
+            Thread.yield();  // every inbox is full: back-pressure
+        }
+    }
+
+    // API method: submit a whole batch of jobs at once. The batch is published in one
+    // step (one critical section for a LinkedJobQueue, one CAS for a RingJobQueue), and
+    // the submitter then wakes as many sleeping workers as there are jobs -- no more --
+    // instead of paying for a wakeup per job.
+    public void executeAll(Collection<? extends Runnable> jobs) {
+        Runnable[ ] batch = jobs.toArray(new Runnable[jobs.size()]);
+        executeAll(batch, 0, batch.length);
+    }
+
+    // Submit batch[from] through batch[from + count - 1]: also used by a SubmissionBuffer.
+    void executeAll(Runnable[ ] batch, int from, int count) {
+        for (int i = from; i < from + count; i++)
+            if (batch[i] == null)
+                throw new NullPointerException(); // before any job of the batch is queued
+        if (shutdown)
+            throw new IllegalStateException("pool has been shut down");
+        if (count == 0)
+            return;
+        if (virtual != null) {         // nothing to batch: a virtual thread per job
+            for (int i = from; i < from + count; i++)
+                virtual.launch(batch[i]);
+            return;
+        }
+
+        if (workStealing) {
+            PoolWorker self = currentWorker();
+            if (self != null) {        // from one of our own workers: all local, and
+                for (int i = from; i < from + count; i++)
+                    self.deque.push(batch[i]);
+                wakeSome(self, count - 1); // this worker will run one job itself
+                return;
+            }
+            // From outside: one slice of the batch per worker, each slice published to the
+            // worker's inbox in one step. A full inbox passes its slice on to the next worker.
+            PoolWorker[ ] workers = poolWorkers;
+            int slice = (count + workers.length - 1) / workers.length;
+            int k = nextWorker.getAndIncrement() & Integer.MAX_VALUE;
+            int queued = 0, misses = 0;
+            while (queued < count) {
+                PoolWorker pw = workers[k++ % workers.length];
+                int n = pw.inbox.offerAll(batch, from + queued, Math.min(slice, count - queued));
+                if (n > 0) {
+                    wakeSome(pw, n);
+                    queued += n;
+                    misses = 0;
+                }
+                else if (++misses == workers.length) {
+                    Thread.yield();  // every inbox is full: back-pressure
+                    misses = 0;
+                }
+            }
+            return;
+        }
+
+        int queued = 0;
+        while (queued < count) {
+            int n = jobQueue.offerAll(batch, from + queued, count - queued);
+            if (n > 0) {
+                wakeSome(null, n);
+                queued += n;
+                continue;
+            }
+            PoolWorker self = currentWorker();  // full queue: as in execute()
+            if (self != null) {
+                self.runJob(batch[from + queued++], 0);
+                continue;
+            }
+            Thread.yield();
+        }
+    }
+
+    // A buffer into which a single submitting thread can drop jobs one at a time, to be
+    // handed to the pool as batches of up to 'capacity' jobs.
+    public SubmissionBuffer newSubmissionBuffer(int capacity) {
+        return new SubmissionBuffer(this, capacity);
+    }
+
+    // API methods: run a job once, after a delay, or every 'period' from then on, at a fixed
+    // rate -- measured from when each run was due, not from when it finished. Runs of a
+    // periodic job never overlap. Timing is to the millisecond; the waiting costs no thread,
+    // as a Thread.sleep() in a job would. See TimingWheel and Timeout.
+    //
+    // Jobs still waiting for their time at shutdown() never run.
+    public Timeout schedule(Runnable job, long delay, TimeUnit unit) {
+        if (job == null)
+            throw new NullPointerException();
+        return timingWheel().schedule(job, unit.toNanos(delay), 0);
+    }
+
+    public Timeout scheduleAtFixedRate(Runnable job, long initialDelay, long period, TimeUnit unit) {
+        if (job == null)
+            throw new NullPointerException();
+        if (period <= 0)
+            throw new IllegalArgumentException("period must be positive");
+        return timingWheel().schedule(job, unit.toNanos(initialDelay), unit.toNanos(period));
+    }
+
+    private TimingWheel timingWheel() {
+        TimingWheel wheel = timingWheel;
+        if (wheel == null) {
+            synchronized(resizeLock) {
+                if (shutdown)
+                    throw new IllegalStateException("pool has been shut down");
+                wheel = timingWheel;
+                if (wheel == null) {
+                    wheel = new TimingWheel(this);
+                    wheel.start();
+                    timingWheel = wheel;
+                }
+            }
+        }
+        if (shutdown)
+            throw new IllegalStateException("pool has been shut down");
+        return wheel;
+    }
+
+    // For a job run inside another pool job, as a KeyedSerializer's drainer runs a key's
+    // jobs: record its own wait and run times, and count it, just as if the pool had run
+    // it itself. The drainer isn't recorded at all (see runJob), so each keyed job shows
+    // up in the stats once, and a burst of them doesn't pass for one long job.
+    void runKeyedJob(Runnable job, long queuedAt) {
+        PoolWorker self = currentWorker();
+        if (self != null)
+            self.runJob(job, queuedAt);
+        else if (virtual != null)
+            virtual.runMeasured(job, queuedAt);
+        else {                    // not on a pool thread: count it, but there's no histogram
+            try {
+                job.run();
+            }
+            catch (RuntimeException e) {
+                failedJobs.increment();
+                lastFailure = e;
+            }
+            completedJobs.increment();
+        }
+    }
+
+    // Stop accepting jobs. Jobs already submitted still run; each worker exits once
+    // there's nothing left for it to do.
+    public void shutdown() {
+        shutdown = true;
+        if (sizeController != null)
+            sizeController.interrupt();
+        TimingWheel wheel;
+        synchronized(resizeLock) {
+            wheel = timingWheel;
+        }
+        if (wheel != null)
+            wheel.shutdown();
+        wakeAll();                  // so that every idle worker can exit
+    }
+
+    // Wait for every worker to exit after a shutdown().
+    public void awaitTermination() throws InterruptedException {
+        for (PoolWorker pw : poolWorkers)
+            pw.join();
+        if (sizeController != null)
+            sizeController.join();
+        if (timingWheel != null)
+            timingWheel.join();
+        if (virtual != null)
+            virtual.awaitTermination();
+    }
+
+    // How many workers there are; with virtual threads, how many jobs are underway.
+    public int getPoolSize() {
+        if (virtual != null)
+            return virtual.launched.get();
+        return liveWorkers.get();
+    }
+
+    public int getCoreSize() {
+        return coreSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getCompletedJobCount() {
+        return completedJobs.sum();
+    }
+
+    // How many jobs are waiting for a worker: an estimate while the pool is busy.
+    public int getQueueDepth() {
+        if (virtual != null)           // jobs whose virtual threads wait for a permit
+            return Math.max(0, virtual.launched.get() - virtual.running.get());
+        if (!workStealing)
+            return jobQueue.size();
+        int depth = 0;
+        for (PoolWorker pw : poolWorkers)
+            depth += pw.deque.size() + pw.inbox.size();
+        return depth;
+    }
+
+    // A snapshot of the pool's job histograms and gauges: see PoolStats.
+    public PoolStats getStats() {
+        LatencyHistogram waits = new LatencyHistogram();
+        LatencyHistogram runs = new LatencyHistogram();
+        long busy, alive;
+        long now = System.nanoTime();
+        synchronized(resizeLock) {  // no worker retires midway through the merge
+            waits.add(retiredWaits);
+            runs.add(retiredRuns);
+            busy = retiredBusyNanos;
+            alive = retiredAliveNanos;
+            for (PoolWorker pw : poolWorkers) {
+                waits.add(pw.waitTimes);
+                runs.add(pw.runTimes);
+                busy += pw.busyNanos;
+                alive += pw.aliveNanos(now);
+            }
+        }
+        // Virtual threads' utilization: against the cap, if there is one; if not, against
+        // the time that virtual threads spent running, so that it isn't just 0.
+        if (virtual != null) {
+            waits.add(virtual.waitTimes);
+            runs.add(virtual.runTimes);
+            busy = virtual.busyNanos.sum();
+            alive = (maxSize > 0) ?
+                (long) maxSize * (now - virtual.createdAt) :
+                virtual.runningNanos.sum();
+        }
+        return new PoolStats(waits, runs, completedJobs.sum(), failedJobs.sum(),
+                             getQueueDepth(), getPoolSize(),
+                             (alive == 0) ? 0 : Math.min(1.0, (double) busy / alive),
+                             lastFailure);
+    }
+
+    boolean isShutdown() {
+        return shutdown;
+    }
+
+    // SizeController: grow to, or shrink toward, the given size. Growth is immediate;
+    // surplus workers retire the next time they look for a job.
+    void resize(int size) {
+        int target = Math.max(coreSize, Math.min(maxSize, size));
+        targetSize = target;
+        synchronized(resizeLock) {
+            while (!shutdown && liveWorkers.get() < target) {
+                PoolWorker pw = new PoolWorker();
+                PoolWorker[ ] old = poolWorkers;
+                PoolWorker[ ] workers = Arrays.copyOf(old, old.length + 1);
+                workers[old.length] = pw;
+                poolWorkers = workers;  // copy-on-write: readers never see a half-built array
+                liveWorkers.incrementAndGet();
+                pw.start();
+            }
+        }
+        if (liveWorkers.get() > target)
+            wakeAll();                  // let sleeping surplus workers notice and retire
+    }
+
+    // A retiring worker leaves the array, again by copy-on-write, and leaves its
+    // records behind for getStats().
+    private void removeWorker(PoolWorker retiree) {
+        synchronized(resizeLock) {
+            retiredWaits.add(retiree.waitTimes);
+            retiredRuns.add(retiree.runTimes);
+            retiredBusyNanos += retiree.busyNanos;
+            retiredAliveNanos += retiree.aliveNanos(System.nanoTime());
+            PoolWorker[ ] old = poolWorkers;
+            PoolWorker[ ] workers = new PoolWorker[old.length - 1];
+            int k = 0;
+            for (PoolWorker pw : old)
+                if (pw != retiree)
+                    workers[k++] = pw;
+            poolWorkers = workers;
+        }
+    }
+
+    // The calling thread's PoolWorker, if the caller is one of this pool's workers.
+    private PoolWorker currentWorker() {
+        Thread t = Thread.currentThread();
+        if (t instanceof PoolWorker && ((PoolWorker) t).pool() == this)
+            return (PoolWorker) t;
+        return null;
+    }
+
+    // Is any job pending anywhere in the pool?
+    private boolean hasPendingJobs() {
+        if (!workStealing)
+            return !jobQueue.isEmpty();
+        for (PoolWorker pw : poolWorkers)
+            if (!pw.deque.isEmpty() || !pw.inbox.isEmpty())
+                return true;
+        return false;
+    }
+
+    // Wake a sleeping worker, the preferred one (if any) if it's asleep. The common case
+    // under load is that nobody is asleep, which costs a single read.
+    //
     // The notify() method (encapsulated in Object, not Thread) can
     // be invoked only within a synchronized block: the compiler will
     // complain otherwise. The same holds for the related notifyAll()
     // method, and the overloaded wait(...) method used later.
-    public void execute(Runnable job) {
-        synchronized(jobQueue) {   // synchronized to prevent simultaneous adds/removes from queue
-            jobQueue.addLast(job); // add the job to the end of the queue
-            jobQueue.notify();     // wake up a thread to handle a job
-        } // end of critical section
+    private void wakeOne(PoolWorker preferred) {
+        wakeSome(preferred, 1);
+    }
+
+    // Wake up to n sleeping workers, for n newly published jobs. Workers that are
+    // spinning, yielding, or in their park backoff find the jobs on their own.
+    private void wakeSome(PoolWorker preferred, int n) {
+        if (n <= 0)
+            return;
+        if (waitStrategy == WaitStrategy.BLOCK) {
+            if (blockedWorkers > 0)
+                synchronized(idleMonitor) {
+                    for (int i = Math.min(n, blockedWorkers); i > 0; i--)
+                        idleMonitor.notify(); // wake up a thread to handle a job
+                }
+            return;
+        }
+        if (parkedWorkers.get() == 0)
+            return;
+        if (preferred != null && preferred.unparkIfParked())
+            n--;
+        for (PoolWorker pw : poolWorkers) {
+            if (n == 0 || parkedWorkers.get() == 0)
+                return;
+            if (pw.unparkIfParked())
+                n--;
+        }
+    }
+
+    private void wakeAll() {
+        for (PoolWorker pw : poolWorkers)
+            LockSupport.unpark(pw); // a worker in its backoff or parked for good
+        synchronized(idleMonitor) {
+            idleMonitor.notifyAll(); // a worker blocked in wait()
+        }
     }
 
-    // PoolWorkers are Threads that are awaken from a wait-state (through a call to notify)
+    // PoolWorkers are Threads that are awaken from a sleep (through a call to unpark or notify)
     // in order to handle the 1st job in the job queue. Once the job is completed, the
-    // worker either returns to the wait-state, if there are no pending jobs, or handles
-    // the next job in the queue, if there are pending jobs.
+    // worker either returns to waiting, if there are no pending jobs, or handles
+    // the next job in the queue, if there are pending jobs. How a worker waits depends
+    // on the pool's WaitStrategy.
+    //
+    // In work-stealing mode, a PoolWorker instead looks first in its own deque, then in its
+    // inbox of jobs submitted from outside the pool, and then in its peers' deques and inboxes.
     private class PoolWorker extends Thread {
+        final WorkStealingDeque deque = new WorkStealingDeque();                    // work-stealing mode
+        final RingJobQueue inbox = new RingJobQueue(inboxCapacity);             // ditto
+
+        // The instruments: this worker is the only thread that writes them.
+        final LatencyHistogram waitTimes = new LatencyHistogram(); // submission to start of run()
+        final LatencyHistogram runTimes = new LatencyHistogram();  // run() itself
+        volatile long busyNanos = 0;                               // total time in run()
+        private final long startedAt = System.nanoTime();
+        private volatile long stoppedAt = 0;
+        private final long[ ] enqueuedAt = new long[1];            // where the queues report submission times
+
+        private final AtomicBoolean parked = new AtomicBoolean(false);
+
+        ThreadPool pool() { return ThreadPool.this; }
+
 	@Override
         public void run() {
-            Runnable job = null;
+            int idleRounds = 0;  // consecutive fruitless looks for a job
+            long idleSince = 0;  // when they began, if this worker might retire
 
 	    // A thread runs indefinitely within this 'infinite loop', waiting or
-	    // working, as appropriate.
+	    // working, as appropriate, until the pool is shut down or shrinks.
             while (true) {
-		// The synchronization ensures that jobs are not simultaneously
-		// added to and removed from the job queue. If there are no pending
-		// jobs, a worker goes into an indefinite wait-state until awoken
-		// to handle a newly added job.
-		//
-		// The overloaded wait(...) method, like the notify() and notifyAll()
-		// methods, can be invoked only within a synchronized block.
-                synchronized(jobQueue) {
-                    while (jobQueue.isEmpty()) {
-                        try {
-			    jobQueue.wait(); // wait() releases the lock
-                        }
-			catch (InterruptedException ignored) { }
+                if (liveWorkers.get() > targetSize && retire(targetSize))
+                    return;
+                Runnable job = workStealing ? nextStealingJob() : jobQueue.poll(enqueuedAt);
+                if (job != null) {
+                    idleRounds = 0;
+                    runJob(job, enqueuedAt[0]);
+                    continue;
+                }
+                if (shutdown && !hasPendingJobs()) {
+                    stoppedAt = System.nanoTime();
+                    return;
+                }
+
+                // Only a surplus worker in an elastic pool needs to watch the clock.
+                long keepAlive = 0;
+                if (keepAliveNanos > 0 && liveWorkers.get() > coreSize) {
+                    long now = System.nanoTime();
+                    if (idleRounds == 0)
+                        idleSince = now;
+                    keepAlive = keepAliveNanos - (now - idleSince);
+                    if (keepAlive <= 0) {
+                        if (!hasPendingJobs() && retire(coreSize))
+                            return;   // idle for the whole keep-alive time, and surplus
+                        keepAlive = keepAliveNanos;
+                        idleSince = now;
                     }
-                    job = (Runnable) jobQueue.removeFirst(); 
-                } // end of critical section
+                }
+                idle(++idleRounds, keepAlive);
+            } // while (true)
+        }
 
+        // Wait out one idle round as the WaitStrategy dictates. A timeout of 0 means
+        // no limit other than the strategy's own.
+        private void idle(int round, long timeoutNanos) {
+            switch (waitStrategy) {
+            case BUSY_SPIN:
+                return;                              // straight back to polling
+            case SPIN_YIELD:
+                if (round > WaitStrategy.spinRounds)
+                    Thread.yield();
+                return;
+            case SPIN_PARK:
+                int r = round - WaitStrategy.spinRounds;
+                if (r <= 0)
+                    return;
+                if (r <= WaitStrategy.yieldRounds) {
+                    Thread.yield();
+                    return;
+                }
+                long backoff = WaitStrategy.minParkNanos << Math.min(r - WaitStrategy.yieldRounds - 1, 30);
+                if (backoff <= WaitStrategy.maxParkNanos) {
+                    LockSupport.parkNanos(this, backoff); // nobody will wake us: bounded by backoff
+                    return;
+                }
+                park(timeoutNanos);
+                return;
+            case BLOCK:
+                block(timeoutNanos);
+                return;
+            }
+        }
+        private Runnable nextStealingJob() {
+            Runnable job = deque.pop(enqueuedAt);  // newest local job: its data is likely still in cache
+            if (job == null)
+                job = inbox.poll(enqueuedAt);
+            if (job == null)
+                job = steal();
+            return job;
+        }
+
+        // Visit the peers in a random order so that thieves spread out rather than all
+        // hitting the same victim. Steal the victim's oldest job.
+        private Runnable steal() {
+            PoolWorker[ ] workers = poolWorkers;
+            int n = workers.length;
+            int start = ThreadLocalRandom.current().nextInt(n);
+            for (int k = 0; k < n; k++) {
+                PoolWorker victim = workers[(start + k) % n];
+                if (victim == this)
+                    continue;
+                Runnable job = victim.deque.steal(enqueuedAt);
+                if (job == null)
+                    job = victim.inbox.poll(enqueuedAt);
+                if (job != null)
+                    return job;
+            }
+            return null;
+        }
+
+        // Announce that this worker is about to park, then look once more for work: a
+        // submitter first publishes its job and then checks for parked workers, so
+        // either the submitter sees this worker parked or this worker sees the job.
+        private void park(long timeoutNanos) {
+            parked.set(true);
+            parkedWorkers.incrementAndGet();
+            if (!shutdown && !hasPendingJobs()) {
+                if (timeoutNanos > 0)
+                    LockSupport.parkNanos(this, timeoutNanos);
+                else
+                    LockSupport.park(this);
+            }
+            if (parked.compareAndSet(true, false)) // woke on its own rather than by unparkIfParked
+                parkedWorkers.decrementAndGet();
+        }
+
+        // The synchronization ensures that a submitter's notify() can't slip in between
+        // this worker's last look for work and its wait(). If there are no pending
+        // jobs, the worker goes into a wait-state until awoken to handle a newly added job.
+        //
+        // The overloaded wait(...) method, like the notify() and notifyAll()
+        // methods, can be invoked only within a synchronized block.
+        private void block(long timeoutNanos) {
+            synchronized(idleMonitor) {
+                blockedWorkers++;
                 try {
-		    // It's important that the job be run _outside_ the synchronized
-		    // block. For one thing, we don't know how long the job will take:
-		    // nanoseconds, weeks, decades? If the job were run inside the
-		    // synchronized block, we'd have single-threaded execution of jobs,
-		    // and thereby miss the entire benefit of multithreading.
-                    job.run(); 
+                    if (!shutdown && !hasPendingJobs())
+                        idleMonitor.wait(Math.max(timeoutNanos / 1_000_000L, (timeoutNanos > 0) ? 1 : 0));
                 }
-                catch (RuntimeException e) { }
-            } // while (true)
+                catch (InterruptedException ignored) { }
+                finally {
+                    blockedWorkers--;
+                }
+            } // end of critical section; wait() releases the lock while waiting
+        }
+
+        boolean unparkIfParked() {
+            if (!parked.compareAndSet(true, false))
+                return false;
+            parkedWorkers.decrementAndGet();
+            LockSupport.unpark(this);
+            return true;
+        }
+
+        // Leave the pool, provided that more than 'floor' workers remain. A job may have
+        // arrived just as this worker decided to go; if so, pass it on to a parked peer.
+        private boolean retire(int floor) {
+            while (true) {
+                int live = liveWorkers.get();
+                if (live <= Math.max(floor, coreSize))
+                    return false;
+                if (liveWorkers.compareAndSet(live, live - 1))
+                    break;
+            }
+            removeWorker(this);
+            if (hasPendingJobs())
+                wakeOne(null);
+            return true;
+        }
+
+        // Run a job and record its wait and run times. A time of submission of 0
+        // means that the job's queue didn't record one.
+        void runJob(Runnable job, long submittedAt) {
+            if (KeyedSerializer.isDrainer(job)) {  // its jobs record themselves
+                job.run();
+                return;
+            }
+            long start = System.nanoTime();
+            if (submittedAt != 0)
+                waitTimes.record(start - submittedAt);
+            try {
+		// It's important that the job be run _outside_ any critical
+		// section. For one thing, we don't know how long the job will take:
+		// nanoseconds, weeks, decades? If the job were run inside the
+		// critical section, we'd have single-threaded execution of jobs,
+		// and thereby miss the entire benefit of multithreading.
+                job.run(); 
+            }
+            catch (RuntimeException e) {  // the worker survives a failed job, but counts it
+                failedJobs.increment();
+                lastFailure = e;
+            }
+            long elapsed = System.nanoTime() - start;
+            runTimes.record(elapsed);
+            busyNanos += elapsed;         // single writer: no lost updates
+            completedJobs.increment();
+        }
+
+        // How long this worker has been (or was) alive, for the utilization gauge.
+        long aliveNanos(long now) {
+            long stopped = stoppedAt;
+            return ((stopped != 0) ? stopped : now) - startedAt;
         }
     }
-}
 
+    // Thread.ofVirtual() is new in Java 21, which this code mustn't require of
+    // every other mode; hence, the reflection.
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                .getMethod("factory").invoke(builder);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("virtual threads need Java 21 or later", e);
+        }
+    }
+
+    // Virtual-thread mode: no PoolWorkers and no queue. Each job gets a virtual thread of
+    // its own at once; if there's a cap on concurrency, the virtual thread waits for a
+    // permit from a Semaphore before it runs the job. A blocked virtual thread gives up
+    // its carrier (platform) thread, so waiting for a permit, like a job's own sleeps and
+    // I/O waits, costs next to nothing.
+    private final class VirtualLauncher {
+        private final ThreadFactory factory;
+        private final Semaphore permits;                      // null: no cap
+        final AtomicInteger launched = new AtomicInteger(0);  // started but not yet finished
+        final AtomicInteger running = new AtomicInteger(0);   // holding a permit, running the job
+        final LatencyHistogram waitTimes = new LatencyHistogram(); // shared by all the virtual
+        final LatencyHistogram runTimes = new LatencyHistogram();  // threads: recordConcurrent()
+        final LongAdder busyNanos = new LongAdder();
+        final LongAdder runningNanos = new LongAdder();       // virtual-thread time, permit held
+        final long createdAt = System.nanoTime();
+
+        VirtualLauncher(ThreadFactory factory, int maxConcurrency) {
+            this.factory = factory;
+            this.permits = (maxConcurrency > 0) ? new Semaphore(maxConcurrency) : null;
+        }
+
+        void launch(final Runnable job) {
+            final long submittedAt = System.nanoTime();
+            launched.incrementAndGet();
+            factory.newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        runJob(job, submittedAt);
+                    }
+                }).start();
+        }
+
+        // An Error from the job mustn't keep the permit, or a capped pool would run out of
+        // them for good: the permit goes back in the finally, if it was ever taken.
+        private void runJob(Runnable job, long submittedAt) {
+            boolean started = false;
+            long start = 0;
+            try {
+                if (permits != null)
+                    permits.acquireUninterruptibly();
+                running.incrementAndGet();
+                started = true;
+                start = System.nanoTime();
+                if (KeyedSerializer.isDrainer(job))  // its jobs record themselves
+                    job.run();
+                else
+                    runMeasured(job, submittedAt);
+            }
+            finally {
+                if (started) {
+                    runningNanos.add(System.nanoTime() - start);
+                    running.decrementAndGet();
+                    if (permits != null)
+                        permits.release();
+                }
+                if (launched.decrementAndGet() == 0)
+                    synchronized(this) {
+                        notifyAll();  // for awaitTermination()
+                    }
+            }
+        }
 
+        void runMeasured(Runnable job, long submittedAt) {
+            long start = System.nanoTime();
+            waitTimes.recordConcurrent(start - submittedAt);
+            try {
+                job.run();
+            }
+            catch (RuntimeException e) {
+                failedJobs.increment();
+                lastFailure = e;
+            }
+            long elapsed = System.nanoTime() - start;
+            runTimes.recordConcurrent(elapsed);
+            busyNanos.add(elapsed);
+            completedJobs.increment();
+        }
+
+        synchronized void awaitTermination() throws InterruptedException {
+            while (launched.get() > 0)
+                wait();
+        }
+    }
+}
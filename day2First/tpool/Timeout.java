@@ -0,0 +1,97 @@
+package tpool;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A handle on a job scheduled with ThreadPool.schedule() or scheduleAtFixedRate(): cancel()
+ * it to stop the job from running, or, for a periodic job, from running again.
+ *
+ * Cancelling costs a compareAndSet and an add to a lock-free queue; the TimingWheel's
+ * ticker thread then unlinks the Timeout from its bucket, also in constant time.
+ *
+ * A Timeout is itself the Runnable that the ticker hands to the pool when the time comes:
+ *
+ *    pending --(ticker: due)--> fired --(worker: job done, if periodic)--> pending ...
+ *       \                         \
+ *        `---(cancel())-----------`--> cancelled
+ *
+ * A one-shot Timeout that has fired can no longer be cancelled. A periodic one can, at any
+ * time; the job then isn't rescheduled. Nor is it if the job throws an exception, as with
+ * a java.util.concurrent.ScheduledThreadPoolExecutor.
+ */
+public final class Timeout implements Runnable {
+    static final int pending = 0;
+    static final int fired = 1;
+    static final int cancelled = 2;
+
+    private static final AtomicIntegerFieldUpdater<Timeout> stateUpdater =
+	AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+    private final TimingWheel wheel;
+    private final Runnable job;
+    final long periodTicks;  // 0: run once
+    long expiryTick;         // the tick at which the job is due
+
+    // The TimingWheel's bucket list, touched only by the ticker thread.
+    Timeout prev, next;
+    TimingWheel.Bucket bucket;
+
+    private volatile int state = pending;
+
+    Timeout(TimingWheel wheel, Runnable job, long expiryTick, long periodTicks) {
+	this.wheel = wheel;
+	this.job = job;
+	this.expiryTick = expiryTick;
+	this.periodTicks = periodTicks;
+    }
+
+    // True if this call stopped the job from running (again).
+    public boolean cancel() {
+	while (true) {
+	    int s = state;
+	    if (s != pending && !(s == fired && periodTicks > 0))
+		return false;
+	    if (stateUpdater.compareAndSet(this, s, cancelled)) {
+		wheel.cancelled(this, s == pending);
+		return true;
+	    }
+	}
+    }
+
+    public boolean isCancelled() {
+	return state == cancelled;
+    }
+
+    public boolean isPeriodic() {
+	return periodTicks > 0;
+    }
+
+    int state() {
+	return state;
+    }
+
+    // The ticker's half of the handoff: false if the Timeout was cancelled first.
+    boolean fire() {
+	return stateUpdater.compareAndSet(this, pending, fired);
+    }
+
+    // On a pool worker.
+    @Override
+    public void run() {
+	boolean ok = false;
+	try {
+	    job.run();
+	    ok = true;
+	}
+	finally {
+	    if (periodTicks > 0) {
+		if (ok && stateUpdater.compareAndSet(this, fired, pending)) {
+		    expiryTick += periodTicks;  // fixed rate: from when it was due, not from now
+		    wheel.add(this);
+		}
+		else if (!ok && stateUpdater.compareAndSet(this, fired, cancelled))
+		    wheel.cancelled(this, false);
+	    }
+	}
+    }
+}
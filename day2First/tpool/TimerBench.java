@@ -0,0 +1,121 @@
+package tpool;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many pending timers: the ThreadPool's TimingWheel against a ScheduledThreadPoolExecutor,
+ * whose delay queue is a binary heap behind one lock.
+ *
+ * The main-thread schedules n one-shot jobs with random delays of up to 'spread' ms, and
+ * then cancels every other one -- the usual fate of a timeout. The program reports the cost
+ * per schedule and per cancel, and, for the jobs that do run, how late they ran: the time
+ * from when each was due to the start of its run().
+ *
+ * Sample usage (the arguments are optional):
+ *
+ *    java tpool.TimerBench [timers] [spread, in ms] [workers]
+ *
+ * The wheel's lateness includes its 1 ms tick; the executor's doesn't, but its schedule()
+ * and cancel() take O(log n) with the lock held, and its workers sort the heap as they go.
+ */
+public class TimerBench {
+    public static void main(String[ ] args) throws Exception {
+	int n       = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+	int spread  = (args.length > 1) ? Integer.parseInt(args[1]) : 2_000;
+	int workers = (args.length > 2) ? Integer.parseInt(args[2]) : 4;
+
+	long[ ] delays = new long[n];
+	ThreadLocalRandom rand = ThreadLocalRandom.current();
+	for (int i = 0; i < n; i++)
+	    delays[i] = 1 + rand.nextInt(spread);
+
+	System.out.printf("%d timers over %d ms, every other one cancelled%n", n, spread);
+	System.out.printf("%-16s %14s %14s %12s %12s %12s%n", "scheduler",
+			  "schedule (ns)", "cancel (ns)", "late p50", "late p99", "late max");
+	for (int round = 0; round < 2; round++) {  // the first round warms up
+	    wheel(delays, workers, round == 1);
+	    heap(delays, workers, round == 1);
+	}
+    }
+
+    private static void wheel(long[ ] delays, int workers, boolean report) throws Exception {
+	int n = delays.length;
+	ThreadPool pool = new ThreadPool(workers);
+	final LatencyHistogram late = new LatencyHistogram();
+	final CountDownLatch done = new CountDownLatch((n + 1) / 2);
+	Timeout[ ] timeouts = new Timeout[n];
+
+	long start = System.nanoTime();
+	for (int i = 0; i < n; i++) {
+	    long delay = delays[i] * 1_000_000L;
+	    timeouts[i] = pool.schedule(new LatenessJob(System.nanoTime() + delay, late, done),
+					delay, TimeUnit.NANOSECONDS);
+	}
+	long scheduled = System.nanoTime();
+	for (int i = 1; i < n; i += 2)
+	    timeouts[i].cancel();
+	long cancelled = System.nanoTime();
+	done.await();
+	pool.shutdown();
+	pool.awaitTermination();
+	if (report)
+	    print("TimingWheel", n, scheduled - start, cancelled - scheduled, late);
+    }
+
+    private static void heap(long[ ] delays, int workers, boolean report) throws Exception {
+	int n = delays.length;
+	ScheduledThreadPoolExecutor exec = new ScheduledThreadPoolExecutor(workers);
+	exec.setRemoveOnCancelPolicy(true);  // else cancelled jobs stay in the heap until due
+	final LatencyHistogram late = new LatencyHistogram();
+	final CountDownLatch done = new CountDownLatch((n + 1) / 2);
+	ScheduledFuture<?>[ ] futures = new ScheduledFuture<?>[n];
+
+	long start = System.nanoTime();
+	for (int i = 0; i < n; i++) {
+	    long delay = delays[i] * 1_000_000L;
+	    futures[i] = exec.schedule(new LatenessJob(System.nanoTime() + delay, late, done),
+				       delay, TimeUnit.NANOSECONDS);
+	}
+	long scheduled = System.nanoTime();
+	for (int i = 1; i < n; i += 2)
+	    futures[i].cancel(false);
+	long cancelled = System.nanoTime();
+	done.await();
+	exec.shutdown();
+	exec.awaitTermination(1, TimeUnit.MINUTES);
+	if (report)
+	    print("ScheduledTPE", n, scheduled - start, cancelled - scheduled, late);
+    }
+
+    private static void print(String label, int n, long scheduling, long cancelling,
+			      LatencyHistogram late) {
+	System.out.printf("%-16s %14.0f %14.0f %12s %12s %12s%n", label,
+			  (double) scheduling / n, (double) cancelling / (n / 2),
+			  LatencyHistogram.format(late.percentile(0.50)),
+			  LatencyHistogram.format(late.percentile(0.99)),
+			  LatencyHistogram.format(late.max()));
+    }
+
+    // Records how late it ran, relative to when it was due.
+    private static final class LatenessJob implements Runnable {
+	private final long due;
+	private final LatencyHistogram late;
+	private final CountDownLatch done;
+
+	LatenessJob(long due, LatencyHistogram late, CountDownLatch done) {
+	    this.due = due;
+	    this.late = late;
+	    this.done = done;
+	}
+
+	@Override
+	public void run() {
+	    late.recordConcurrent(System.nanoTime() - due);
+	    done.countDown();
+	}
+    }
+}
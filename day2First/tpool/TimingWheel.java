@@ -0,0 +1,212 @@
+package tpool;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The scheduler behind ThreadPool.schedule() and scheduleAtFixedRate(): a hierarchical
+ * hashed timing wheel, as in the Linux kernel's classic timer code and in Netty and Kafka,
+ * driven by one ticker thread. Time advances in ticks of 1 ms.
+ *
+ * A wheel is an array of 256 buckets, one per tick, and a job due in t ticks goes into
+ * bucket (now + t) mod 256 -- a constant-time insert, however many timers there are. A
+ * job due further off goes into a coarser wheel, whose buckets each span 256 ticks of the
+ * wheel below, and so on up four levels (256 ms, 65 s, 4.7 hours, 49 days):
+ *
+ *    level 0   [ 0 | 1 | 2 | ... | 255 ]   1 tick per bucket: fired when reached
+ *    level 1   [ 0 | 1 | 2 | ... | 255 ]   256 ticks per bucket
+ *    level 2   [ 0 | 1 | 2 | ... | 255 ]   65,536 ticks per bucket
+ *    level 3   [ 0 | 1 | 2 | ... | 255 ]   16,777,216 ticks per bucket
+ *
+ * Each time the level-0 wheel comes round to bucket 0, the ticker empties the next bucket
+ * of level 1 and re-inserts its timers, now close enough for level 0 ('cascading'); and
+ * likewise further up. Each timer cascades at most three times in its life. A priority
+ * queue, in contrast, costs O(log n) per insert, under one lock shared by every submitter.
+ *
+ * Only the ticker touches the buckets, so they need no lock. Submitters and cancellers
+ * hand their Timeouts over through two lock-free queues, which the ticker drains each tick.
+ * When the jobs come due, the ticker hands them to the pool: it never runs a job itself.
+ * With no timer pending, the ticker parks until the next schedule().
+ */
+class TimingWheel extends Thread {
+    static final long tickNanos = 1_000_000L;
+    private static final int bits = 8;
+    private static final int slots = 1 << bits;  // 256
+    private static final int mask = slots - 1;
+    private static final int levels = 4;
+    private static final long horizon = 1L << (bits * levels);  // in ticks: about 49 days
+
+    // A bucket's doubly linked list of Timeouts, so that a cancelled one unlinks in O(1).
+    static final class Bucket {
+	Timeout head, tail;
+
+	void link(Timeout t) {
+	    t.bucket = this;
+	    t.prev = tail;
+	    t.next = null;
+	    if (tail == null)
+		head = t;
+	    else
+		tail.next = t;
+	    tail = t;
+	}
+
+	void unlink(Timeout t) {
+	    if (t.prev == null)
+		head = t.next;
+	    else
+		t.prev.next = t.next;
+	    if (t.next == null)
+		tail = t.prev;
+	    else
+		t.next.prev = t.prev;
+	    t.prev = t.next = null;
+	    t.bucket = null;
+	}
+
+	Timeout detachAll() {
+	    Timeout first = head;
+	    head = tail = null;
+	    return first;
+	}
+    }
+
+    private final ThreadPool pool;
+    private final Bucket[ ][ ] wheels = new Bucket[levels][slots];
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+    private final AtomicInteger live = new AtomicInteger(0);  // neither spent nor cancelled
+    private final long startedAt = System.nanoTime();
+    private volatile boolean idle = false;
+    private volatile boolean stopped = false;
+    private long current = 0;  // the next tick to process: ticker only
+    private int linked = 0;    // Timeouts in buckets: ticker only
+
+    TimingWheel(ThreadPool pool) {
+	super("timing-wheel");
+	setDaemon(true);
+	this.pool = pool;
+	for (int l = 0; l < levels; l++)
+	    for (int s = 0; s < slots; s++)
+		wheels[l][s] = new Bucket();
+    }
+
+    // A new timer, due delayNanos from now and then, if periodNanos > 0, every periodNanos.
+    // Delays round up to whole ticks, and periods to the nearest tick (but at least one).
+    Timeout schedule(Runnable job, long delayNanos, long periodNanos) {
+	long due = (System.nanoTime() - startedAt + Math.max(0, delayNanos) + tickNanos - 1) / tickNanos;
+	long period = (periodNanos > 0) ? Math.max(1, (periodNanos + tickNanos / 2) / tickNanos) : 0;
+	Timeout t = new Timeout(this, job, due, period);
+	live.incrementAndGet();
+	add(t);
+	return t;
+    }
+
+    // New, or a periodic Timeout due again: the ticker puts it in its bucket.
+    void add(Timeout t) {
+	added.offer(t);
+	if (idle)
+	    LockSupport.unpark(this);
+    }
+
+    // Called by Timeout.cancel(). A pending Timeout may be in a bucket, to be unlinked.
+    void cancelled(Timeout t, boolean wasPending) {
+	live.decrementAndGet();
+	if (wasPending)
+	    cancelled.offer(t);
+    }
+
+    int pendingCount() {
+	return live.get();
+    }
+
+    void shutdown() {
+	stopped = true;
+	LockSupport.unpark(this);
+    }
+
+    @Override
+    public void run() {
+	while (!stopped) {
+	    Timeout t;
+	    while ((t = added.poll()) != null)
+		if (t.state() == Timeout.pending)
+		    insert(t);
+	    while ((t = cancelled.poll()) != null)
+		if (t.bucket != null) {
+		    t.bucket.unlink(t);
+		    linked--;
+		}
+
+	    long now = (System.nanoTime() - startedAt) / tickNanos;
+	    if (linked == 0)
+		current = Math.max(current, now);  // nothing in the wheel: skip the empty ticks
+	    while (current <= now)
+		tick(current++);
+
+	    if (live.get() == 0) {
+		idle = true;                       // add() unparks an idle ticker
+		if (added.isEmpty() && !stopped)
+		    LockSupport.park(this);
+		idle = false;
+	    }
+	    else
+		LockSupport.parkNanos(this, startedAt + current * tickNanos - System.nanoTime());
+	}
+    }
+
+    private void tick(long tick) {
+	if ((tick & mask) == 0)
+	    cascade(1, tick);
+	Timeout t = wheels[0][(int) (tick & mask)].detachAll();
+	while (t != null) {
+	    Timeout next = t.next;
+	    t.prev = t.next = null;
+	    t.bucket = null;
+	    linked--;
+	    if (t.expiryTick > tick)
+		insert(t);                         // not due after all: can't happen, but cheap
+	    else if (t.fire()) {
+		if (t.periodTicks == 0)
+		    live.decrementAndGet();
+		pool.submit(t);
+	    }
+	    t = next;
+	}
+    }
+
+    // Move the timers in the level's current bucket down to the finer wheels.
+    private void cascade(int level, long tick) {
+	int slot = (int) ((tick >>> (bits * level)) & mask);
+	if (slot == 0 && level + 1 < levels)
+	    cascade(level + 1, tick);
+	Timeout t = wheels[level][slot].detachAll();
+	while (t != null) {
+	    Timeout next = t.next;
+	    t.prev = t.next = null;
+	    t.bucket = null;
+	    linked--;
+	    if (t.state() == Timeout.pending)
+		insert(t);
+	    t = next;
+	}
+    }
+
+    private void insert(Timeout t) {
+	long due = t.expiryTick;
+	long delta = due - current;
+	int level = 0;
+	if (delta < 0)
+	    due = current;                 // overdue: the very next tick
+	else if (delta >= horizon)
+	    due = current + horizon - 1;   // beyond the top wheel: cascades again in 49 days
+	else
+	    while (level + 1 < levels && delta >= (1L << (bits * (level + 1))))
+		level++;
+	if (delta >= horizon)
+	    level = levels - 1;
+	wheels[level][(int) ((due >>> (bits * level)) & mask)].link(t);
+	linked++;
+    }
+}
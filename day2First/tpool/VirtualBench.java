@@ -0,0 +1,63 @@
+package tpool;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compare platform-thread pools with virtual threads on jobs that mostly sleep, like
+ * DriverTP's Job: each job sleeps 8 times, for 8 or 12 ms each time, but prints nothing.
+ *
+ * A pool of N platform threads finishes such jobs at a rate of about N per 80 ms, no matter
+ * how idle the CPU is, since a sleeping job ties up its worker. A virtual thread that sleeps
+ * gives up its carrier thread; hence, 10,000 such jobs can all sleep at once.
+ *
+ * Sample usage (the arguments are optional):
+ *
+ *    java tpool.VirtualBench [jobs] [cap on concurrent virtual jobs]
+ *
+ * On a Java older than 21, the virtual rows are skipped with a notice.
+ */
+public class VirtualBench {
+    public static void main(String[ ] args) throws Exception {
+	int jobs = (args.length > 0) ? Integer.parseInt(args[0]) : 10_000;
+	int cap  = (args.length > 1) ? Integer.parseInt(args[1]) : 1_000;
+
+	System.out.printf("%d sleeping jobs%n", jobs);
+	System.out.printf("%-24s %10s %12s%n", "pool", "wall (ms)", "jobs/s");
+	for (int workers : new int[ ] { 64, 256, 1024 })
+	    report("platform, " + workers + " workers", new ThreadPool(workers), jobs);
+
+	ThreadPool uncapped, capped;
+	try {
+	    uncapped = ThreadPool.newVirtualThreadPool(0);
+	    capped = ThreadPool.newVirtualThreadPool(cap);
+	}
+	catch (UnsupportedOperationException e) {
+	    System.out.println("(no virtual rows: " + e.getMessage() + ")");
+	    return;
+	}
+	report("virtual, no cap", uncapped, jobs);
+	report("virtual, cap " + cap, capped, jobs);
+    }
+
+    private static void report(String label, ThreadPool pool, int jobs) throws Exception {
+	final CountDownLatch done = new CountDownLatch(jobs);
+	long start = System.nanoTime();
+	for (int i = 0; i < jobs; i++)
+	    pool.execute(new Runnable() {
+		    @Override
+		    public void run() {
+			try {
+			    for (int k = 0; k < 8; k++)
+				Thread.sleep(((k & 1) == 0) ? 8 : 12);
+			}
+			catch (InterruptedException e) { }
+			done.countDown();
+		    }
+		});
+	done.await();
+	long elapsed = System.nanoTime() - start;
+	pool.shutdown();
+	pool.awaitTermination();
+	System.out.printf("%-24s %10d %12.0f%n", label, elapsed / 1_000_000L, jobs / (elapsed / 1e9));
+    }
+}
@@ -0,0 +1,94 @@
+package tpool;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measure each WaitStrategy's trade-off between dispatch latency and idle CPU.
+ *
+ * For each strategy, the main-thread submits jobs one at a time, pausing between
+ * submissions so that the workers go idle in between -- the case in which the wait
+ * strategy matters. Each job records how long it sat between execute() and the start
+ * of its run() ('dispatch latency'). Over the same stretch, the program totals the CPU
+ * time of every thread other than the main-thread: the pool's cost of waiting.
+ *
+ * Sample usage (the arguments are optional):
+ *
+ *    java tpool.WaitBench [workers] [jobs] [pause between jobs, in microseconds]
+ *
+ * The CPU column is in cores: 1.00 means that the pool kept one core busy for the whole
+ * run. On a machine with fewer cores than workers, the spinning strategies compete
+ * with the main-thread for the CPU, and their latencies suffer accordingly.
+ */
+public class WaitBench {
+    public static void main(String[ ] args) throws Exception {
+	int workers = (args.length > 0) ? Integer.parseInt(args[0]) : 2;
+	int jobs    = (args.length > 1) ? Integer.parseInt(args[1]) : 2_000;
+	long pause  = (args.length > 2) ? Long.parseLong(args[2]) : 200;
+
+	System.out.printf("%d workers, %d jobs, %d microseconds apart%n", workers, jobs, pause);
+	System.out.printf("%-11s %12s %12s %12s %10s%n",
+			  "strategy", "p50 (us)", "p99 (us)", "max (us)", "CPU (cores)");
+	for (WaitStrategy ws : WaitStrategy.values()) {
+	    runOnce(ws, workers, jobs / 4, pause, false);  // warm-up
+	    runOnce(ws, workers, jobs, pause, true);
+	}
+    }
+
+    private static void runOnce(WaitStrategy ws, int workers, int jobs, long pauseMicros,
+				boolean report) throws Exception {
+	ThreadPool pool = new ThreadPool(workers, false, ws);
+	final long[ ] latencies = new long[jobs];
+	final CountDownLatch done = new CountDownLatch(jobs);
+	ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+	Thread.sleep(50); // let the workers settle into their idle state
+
+	long cpuStart = otherThreadsCpu(mx);
+	long start = System.nanoTime();
+	for (int i = 0; i < jobs; i++) {
+	    final int k = i;
+	    final long submitted = System.nanoTime();
+	    pool.execute(new Runnable() {
+		    @Override
+		    public void run() {
+			latencies[k] = System.nanoTime() - submitted;
+			done.countDown();
+		    }
+		});
+	    long until = System.nanoTime() + pauseMicros * 1_000L;
+	    while (System.nanoTime() < until)
+		Thread.yield(); // a sleep() would be far coarser than the pause
+	}
+	done.await();
+	long elapsed = System.nanoTime() - start;
+	long cpu = otherThreadsCpu(mx) - cpuStart;
+
+	pool.shutdown();
+	pool.awaitTermination();
+
+	if (!report)
+	    return;
+	Arrays.sort(latencies);
+	System.out.printf("%-11s %12.1f %12.1f %12.1f %10.2f%n", ws,
+			      latencies[jobs / 2] / 1e3,
+			      latencies[(int) (jobs * 0.99)] / 1e3,
+			      latencies[jobs - 1] / 1e3,
+			      (double) cpu / elapsed);
+    }
+
+    // Total CPU time, in nanoseconds, of every live thread except the caller.
+    private static long otherThreadsCpu(ThreadMXBean mx) {
+	long self = Thread.currentThread().getId();
+	long total = 0;
+	for (long id : mx.getAllThreadIds()) {
+	    if (id == self)
+		continue;
+	    long t = mx.getThreadCpuTime(id);
+	    if (t > 0)
+		total += t;
+	}
+	return total;
+    }
+}
@@ -0,0 +1,39 @@
+package tpool;
+
+/**
+ * What an idle PoolWorker does while it waits for a job. Waiting is a trade between
+ * dispatch latency -- how long a newly submitted job sits before a worker picks it up --
+ * and the CPU that idle workers burn:
+ *
+ *  -- BUSY_SPIN: poll the queue in a tight loop. The lowest latency (well under a
+ *     microsecond), but each idle worker burns a whole core, even if there's no work
+ *     for hours. Only for pools with fewer workers than spare cores.
+ *
+ *  -- SPIN_YIELD: spin briefly, then poll with Thread.yield() between polls. Latency is
+ *     nearly as low, and other threads can run on the core; but an idle worker still
+ *     shows as fully busy whenever no other thread wants the core.
+ *
+ *  -- SPIN_PARK: spin briefly, yield briefly, then park for a short but growing time
+ *     (1 microsecond, doubling up to 1 millisecond) between polls, and at last park until
+ *     a submitter wakes the worker. A job that arrives during the backoff waits at most
+ *     one backoff period, and its submitter pays nothing to wake the worker; once the
+ *     worker is fully parked, the submitter pays for one unpark. Idle CPU drops to zero.
+ *     This is the default.
+ *
+ *  -- BLOCK: the original design, go straight to wait() on a monitor, and have the
+ *     submitter notify(). No idle CPU, but every job that finds the pool idle pays a
+ *     full OS wakeup (tens of microseconds), and the submitter takes the monitor to do so.
+ *
+ * The WaitBench program measures the dispatch latency and the idle CPU of each.
+ */
+public enum WaitStrategy {
+    BUSY_SPIN,
+    SPIN_YIELD,
+    SPIN_PARK,
+    BLOCK;
+
+    static final int spinRounds = 100;                 // polls before yielding (SPIN_YIELD, SPIN_PARK)
+    static final int yieldRounds = 10;                 // yields before parking (SPIN_PARK)
+    static final long minParkNanos = 1_000L;           // first backoff park (SPIN_PARK)
+    static final long maxParkNanos = 1_000_000L;       // last backoff park, before parking for good
+}
@@ -0,0 +1,127 @@
+package tpool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A work-stealing deque ('double-ended queue') in the style of Chase and Lev, the same
+ * idea that underlies the ForkJoinPool's per-thread work queues. Each PoolWorker owns
+ * one such deque:
+ *
+ *  -- The owner pushes and pops jobs at the 'bottom' end, LIFO style, without any
+ *     locking and (except when racing for the very last job) without even a CAS.
+ *
+ *  -- Other workers, the 'thieves', steal from the 'top' end, FIFO style. A thief
+ *     claims a job with a single compareAndSet on the top index.
+ *
+ *           top (thieves steal here)                 bottom (owner pushes/pops here)
+ *            |                                          |
+ *            v                                          v
+ *          [job3][job4][job5][job6] ..................[  ]
+ *
+ * Because the owner and the thieves work at opposite ends, they interfere only when the
+ * deque is nearly empty. Contrast this with the single LinkedList in ThreadPool's
+ * shared-queue mode, where every add and every remove contends for the same monitor.
+ *
+ * The push() and pop() methods must be called only by the owning thread; steal(),
+ * isEmpty(), and size() may be called by any thread.
+ *
+ * Each slot also records when its job was pushed, so that the pool can measure how long
+ * the job waited. The jobs and their times live in one Slots object so that growing the
+ * deque replaces both together.
+ */
+final class WorkStealingDeque {
+    private static final int initialCapacity = 256; // must be a power of 2
+
+    private final AtomicLong top = new AtomicLong(0); // next slot to steal from
+    private volatile long bottom = 0;                   // next slot to push into
+    private volatile Slots slots = new Slots(initialCapacity);
+
+    // The jobs, and the System.nanoTime() at which each was pushed. A time is published
+    // along with its job by the volatile write to 'bottom'.
+    private static final class Slots {
+	final AtomicReferenceArray<Runnable> jobs;
+	final long[ ] times;
+	final int mask;
+
+	Slots(int capacity) {
+	    jobs = new AtomicReferenceArray<Runnable>(capacity);
+	    times = new long[capacity];
+	    mask = capacity - 1;
+	}
+    }
+
+    // Owner only: add a job at the bottom, growing the array if need be.
+    void push(Runnable job) {
+	long b = bottom;
+	long t = top.get();
+	Slots a = slots;
+	if (b - t >= a.mask)
+	    a = grow(a, t, b);
+	int i = (int) (b & a.mask);
+	a.times[i] = System.nanoTime();
+	a.jobs.set(i, job);
+	bottom = b + 1; // volatile write publishes the job to thieves
+    }
+
+    // Owner only: remove the most recently pushed job, or return null if empty. The
+    // job's push time goes into enqueuedAt[0].
+    Runnable pop(long[ ] enqueuedAt) {
+	long b = bottom - 1;
+	Slots a = slots;
+	bottom = b;              // claim the slot before looking at top...
+	long t = top.get();      // ...so that a thief and the owner can't both take it
+	if (t > b) {             // deque was empty
+	    bottom = b + 1;
+	    return null;
+	}
+	int i = (int) (b & a.mask);
+	Runnable job = a.jobs.get(i);
+	enqueuedAt[0] = a.times[i];
+	if (t == b) {            // last job: race any thief for it
+	    if (!top.compareAndSet(t, t + 1))
+		job = null;      // a thief won
+	    bottom = b + 1;
+	}
+	return job;
+    }
+
+    // Any thread: remove the oldest job, or return null if the deque is empty or
+    // another thread won the race for the job. The job's push time goes into enqueuedAt[0].
+    Runnable steal(long[ ] enqueuedAt) {
+	long t = top.get(); // read top before bottom
+	long b = bottom;
+	if (t >= b)
+	    return null;
+	Slots a = slots;
+	int i = (int) (t & a.mask);
+	Runnable job = a.jobs.get(i);
+	long time = a.times[i];
+	if (job == null || !top.compareAndSet(t, t + 1))
+	    return null;
+	enqueuedAt[0] = time;
+	return job;
+    }
+
+    boolean isEmpty() {
+	return top.get() >= bottom;
+    }
+
+    int size() {
+	long n = bottom - top.get();
+	return (n > 0) ? (int) n : 0;
+    }
+
+    // Owner only: double the array, copying the live jobs. A thief still holding the
+    // old array can safely read from it, as the owner never writes to the old array
+    // again; the thief's CAS on top decides whether its read counts.
+    private Slots grow(Slots old, long t, long b) {
+	Slots a = new Slots((old.mask + 1) * 2);
+	for (long i = t; i < b; i++) {
+	    a.times[(int) (i & a.mask)] = old.times[(int) (i & old.mask)];
+	    a.jobs.set((int) (i & a.mask), old.jobs.get((int) (i & old.mask)));
+	}
+	slots = a;
+	return a;
+    }
+}